@@ -0,0 +1,405 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import tfsd.bench.Harness;
+
+/**
+ * Geometric queries of RRTGenerator on synthetic point sets, uniform in a
+ * square, from a thousand to a million points.
+ * <br>
+ * findNearest looks up random points among the n points, by scanning them,
+ * by running the Geometry kernel over their coordinates and with the
+ * kd-tree of RRTGenerator. connect joins a random point to a tree of n short
+ * edges, which is put back as it was after each call; the kernel alone finds
+ * the nearest of the same edges, stored as arrays of coordinates.
+ * Growing a whole tree by scanning the edges is only measured for small
+ * sets, since it takes time quadratic in their size; with the indexes of
+ * RRTGenerator it is also timed once on a larger set.
+ * <br>
+ * Before measuring, the scans, the kernel and the indexes are checked
+ * against the scans RRTGenerator used before the kernel, which compared
+ * sqrt(pow(...)) distances, on points around circles where the distances
+ * differ by a few ulps and many of them have the same root.
+ * 
+ */
+public class RRTBenchmark {
+
+	private static final int SIZE = 1000;
+	private static final int[] POINTS = { 1000, 10000, 100000, 1000000 };
+	private static final int[] GROWN = { 1000, 3000 };
+	private static final int[] GROWN_ONCE = { 100000, 1000000 };
+
+	static List<Point> points(int n, long seed) {
+		Random random = new Random(seed);
+		List<Point> points = new ArrayList<Point>(n);
+		for (int i = 0; i < n; i++)
+			points.add(new Point(random.nextDouble() * SIZE,
+					random.nextDouble() * SIZE));
+		return points;
+	}
+
+	/**
+	 * Spans the points with short edges: the points of each horizontal band
+	 * are chained from left to right, and the first of each band is joined
+	 * to the first of the band below.
+	 */
+	static List<Edge> edges(List<Point> points) {
+		final double band = SIZE / Math.ceil(Math.sqrt(points.size()));
+		List<Point> sorted = new ArrayList<Point>(points);
+		Collections.sort(sorted, new Comparator<Point>() {
+			public int compare(Point p, Point q) {
+				int c = Double.compare(Math.floor(p.y / band),
+						Math.floor(q.y / band));
+				return c != 0 ? c : Double.compare(p.x, q.x);
+			}
+		});
+
+		List<Edge> edges = new ArrayList<Edge>(points.size() + 4);
+		Point first = sorted.get(0);
+		edges.add(new Edge(first, first));
+		for (int i = 1; i < sorted.size(); i++) {
+			Point p = sorted.get(i);
+			Point previous = sorted.get(i - 1);
+			if (Math.floor(p.y / band) == Math.floor(previous.y / band)) {
+				edges.add(new Edge(previous, p));
+			} else {
+				edges.add(new Edge(first, p));
+				first = p;
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Undoes a connect call that found the edges with the given size.
+	 */
+	static void restore(List<Edge> edges, int size) {
+		if (edges.size() == size + 1) {
+			edges.remove(size);
+			return;
+		}
+		// The split edge was removed and replaced by three edges at the end
+		Point begin = edges.get(size - 1).getBegin();
+		Point end = edges.get(size).getBegin();
+		edges.subList(size - 1, size + 2).clear();
+		edges.add(new Edge(begin, end));
+	}
+
+	/**
+	 * Distance as RRTGenerator computed it before the Geometry kernel.
+	 */
+	static double referenceDistance(double sx, double sy, double tx,
+			double ty) {
+		return Math.sqrt(Math.pow(sx - tx, 2) + Math.pow(sy - ty, 2));
+	}
+
+	/**
+	 * The point scan of RRTGenerator before the Geometry kernel.
+	 */
+	static int referenceNearest(List<Point> points, double x, double y) {
+		int nearest = -1;
+		double distance = Double.MAX_VALUE;
+		for (int i = 0; i < points.size(); i++) {
+			Point p = points.get(i);
+			double current = referenceDistance(x, y, p.x, p.y);
+			if (current <= distance) {
+				nearest = i;
+				distance = current;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * The edge scan of RRTGenerator.connect before the Geometry kernel.
+	 */
+	static int referenceNearestEdge(List<Edge> edges, double x, double y) {
+		int nearest = -1;
+		double distance = Double.MAX_VALUE;
+		for (int i = 0; i < edges.size(); i++) {
+			Point begin = edges.get(i).getBegin();
+			Point end = edges.get(i).getEnd();
+			double vx = end.x - begin.x, vy = end.y - begin.y;
+			double wx = x - begin.x, wy = y - begin.y;
+			double c1 = wx * vx + wy * vy;
+			double c2 = vx * vx + vy * vy;
+			double current;
+			if (c1 <= 0) {
+				current = referenceDistance(x, y, begin.x, begin.y);
+			} else if (c2 <= c1) {
+				current = referenceDistance(x, y, end.x, end.y);
+			} else {
+				double b = c1 / c2;
+				current = referenceDistance(x, y, begin.x + b * vx, begin.y
+						+ b * vy);
+			}
+			if (current <= distance) {
+				nearest = i;
+				distance = current;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Checks every way of finding the nearest point and edge against the
+	 * reference scans, and reports how many queries had a tie that only the
+	 * square roots reveal.
+	 */
+	private static void check() {
+		Random random = new Random(4);
+		int queries = 2000;
+		int rootTies = 0;
+		for (int q = 0; q < queries; q++) {
+			double x = random.nextDouble() * SIZE;
+			double y = random.nextDouble() * SIZE;
+			double radius = 1 + random.nextDouble() * 10;
+
+			List<Point> points = new ArrayList<Point>();
+			for (int i = 0; i < 64; i++) {
+				double angle = random.nextDouble() * 2 * Math.PI;
+				points.add(new Point(x + radius * Math.cos(angle), y + radius
+						* Math.sin(angle)));
+			}
+			List<Edge> edges = new ArrayList<Edge>();
+			for (int i = 0; i < points.size(); i++)
+				edges.add(new Edge(points.get(i), points.get(i)));
+			for (int i = 1; i < points.size(); i += 2)
+				edges.add(new Edge(points.get(i - 1), points.get(i)));
+
+			int n = points.size();
+			double[] xs = new double[n];
+			double[] ys = new double[n];
+			for (int i = 0; i < n; i++) {
+				xs[i] = points.get(i).x;
+				ys[i] = points.get(i).y;
+			}
+			int m = edges.size();
+			double[] beginXs = new double[m];
+			double[] beginYs = new double[m];
+			double[] endXs = new double[m];
+			double[] endYs = new double[m];
+			SegmentIndex edgeIndex = new SegmentIndex(radius);
+			for (int i = 0; i < m; i++) {
+				Edge edge = edges.get(i);
+				beginXs[i] = edge.getBegin().x;
+				beginYs[i] = edge.getBegin().y;
+				endXs[i] = edge.getEnd().x;
+				endYs[i] = edge.getEnd().y;
+				edgeIndex.add(beginXs[i], beginYs[i], endXs[i], endYs[i]);
+			}
+
+			RRTGenerator generator = new RRTGenerator(SIZE, SIZE, points);
+			int expected = referenceNearest(points, x, y);
+			expect("findNearest", expected, points.indexOf(generator
+					.findNearest(new Point(x, y), points)));
+			expect("kernel nearestPoint", expected, Geometry.nearestPoint(xs,
+					ys, 0, n, x, y));
+			expect("kd-tree", expected, generator.findNearest(x, y));
+
+			int expectedEdge = referenceNearestEdge(edges, x, y);
+			expect("kernel nearestSegment", expectedEdge, Geometry
+					.nearestSegment(beginXs, beginYs, endXs, endYs, 0, m, x, y));
+			expect("edge index", expectedEdge, edgeIndex.findNearest(x, y));
+
+			if (expected != lastMinimum(xs, ys, x, y))
+				rootTies++;
+		}
+		Harness.report("reference check, queries with a tie of roots only",
+				rootTies * 100.0 / queries, "%");
+	}
+
+	/**
+	 * The last point at the lowest squared distance, ignoring ties of the
+	 * roots.
+	 */
+	private static int lastMinimum(double[] xs, double[] ys, double x,
+			double y) {
+		int nearest = -1;
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < xs.length; i++) {
+			double d = Geometry.distanceSquared(x, y, xs[i], ys[i]);
+			if (d <= best) {
+				best = d;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+
+	private static void expect(String what, int expected, int actual) {
+		if (expected != actual)
+			throw new IllegalStateException(what + " found " + actual
+					+ " instead of " + expected);
+	}
+
+	private static void run(final int n) {
+		final List<Point> points = points(n, n);
+		final RRTGenerator generator = new RRTGenerator(SIZE, SIZE, points);
+		Harness.measure("findNearest, " + n + " points", new Harness.Operation() {
+			Random random = new Random(1);
+
+			public long run() {
+				Point query = new Point(random.nextDouble() * SIZE,
+						random.nextDouble() * SIZE);
+				return (long) generator.findNearest(query, points).x;
+			}
+		});
+
+		final double[] xs = new double[n];
+		final double[] ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = points.get(i).x;
+			ys[i] = points.get(i).y;
+		}
+		Harness.measure("findNearest, kernel, " + n + " points",
+				new Harness.Operation() {
+					Random random = new Random(1);
+
+					public long run() {
+						return Geometry.nearestPoint(xs, ys, 0, n,
+								random.nextDouble() * SIZE,
+								random.nextDouble() * SIZE);
+					}
+				});
+
+		Harness.measure("findNearest, kd-tree, " + n + " points",
+				new Harness.Operation() {
+					Random random = new Random(1);
+
+					public long run() {
+						return generator.findNearest(random.nextDouble() * SIZE,
+								random.nextDouble() * SIZE);
+					}
+				});
+
+		long start = System.nanoTime();
+		Harness.sink = new KdTree(generator.tree).size();
+		Harness.report("kd-tree build, " + n + " points",
+				(System.nanoTime() - start) / 1e6, "ms");
+
+		final List<Edge> edges = edges(points);
+		Harness.measure("connect, " + n + " edges", new Harness.Operation() {
+			Random random = new Random(2);
+
+			public long run() {
+				Point s = new Point(random.nextDouble() * SIZE,
+						random.nextDouble() * SIZE);
+				int size = edges.size();
+				generator.connect(s, edges);
+				long added = edges.size() - size;
+				restore(edges, size);
+				return added;
+			}
+		});
+
+		final int m = edges.size();
+		final double[] beginXs = new double[m];
+		final double[] beginYs = new double[m];
+		final double[] endXs = new double[m];
+		final double[] endYs = new double[m];
+		for (int i = 0; i < m; i++) {
+			Edge edge = edges.get(i);
+			beginXs[i] = edge.getBegin().x;
+			beginYs[i] = edge.getBegin().y;
+			endXs[i] = edge.getEnd().x;
+			endYs[i] = edge.getEnd().y;
+		}
+		Harness.measure("connect, kernel, " + n + " edges",
+				new Harness.Operation() {
+					Random random = new Random(2);
+
+					public long run() {
+						return Geometry.nearestSegment(beginXs, beginYs, endXs,
+								endYs, 0, m, random.nextDouble() * SIZE,
+								random.nextDouble() * SIZE);
+					}
+				});
+	}
+
+	/**
+	 * Grows a tree over every point, as RRTGenerator.generate does once the
+	 * decisions are known.
+	 */
+	private static void grow(final int n) {
+		final List<Point> points = points(n, n);
+		Harness.measure("grow tree, " + n + " points", new Harness.Operation() {
+			public long run() {
+				List<Point> remaining = new ArrayList<Point>(points);
+				RRTGenerator generator = new RRTGenerator(SIZE, SIZE, remaining);
+				Point root = generator.findNearest(new Point(SIZE / 2, SIZE / 2),
+						remaining);
+				List<Edge> edges = new ArrayList<Edge>();
+				edges.add(new Edge(root, root));
+				remaining.remove(root);
+
+				Random random = new Random(3);
+				while (!remaining.isEmpty())
+					generator.connect(remaining.remove(random.nextInt(remaining
+							.size())), edges);
+				return edges.size();
+			}
+		});
+	}
+
+	/**
+	 * Grows a tree over every point with the indexes of RRTGenerator.
+	 */
+	private static long growIndexed(List<Point> points) {
+		RRTGenerator generator = new RRTGenerator(SIZE, SIZE,
+				new ArrayList<Point>(points));
+		generator.plant();
+		Random random = new Random(3);
+		while (!generator.points.isEmpty())
+			generator.grow(random.nextInt(generator.points.size()));
+		return generator.tree.getEdgeCount();
+	}
+
+	public static void main(String[] args) {
+		Harness.title("RRT geometric queries");
+		check();
+		for (int n : POINTS)
+			run(n);
+		for (int n : GROWN)
+			grow(n);
+
+		for (int n : GROWN) {
+			final List<Point> points = points(n, n);
+			Harness.measure("grow tree, indexed, " + n + " points",
+					new Harness.Operation() {
+						public long run() {
+							return growIndexed(points);
+						}
+					});
+		}
+		for (int n : GROWN_ONCE) {
+			List<Point> points = points(n, n);
+			long start = System.nanoTime();
+			Harness.sink = growIndexed(points);
+			Harness.report("grow tree once, indexed, " + n + " points",
+					(System.nanoTime() - start) / 1e6, "ms");
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.beb;
+
+import net.sf.appia.core.events.SendableEvent;
+import tfsd.bench.Harness;
+import tfsd.consensus.ConsensusCodec;
+import tfsd.consensus.DecideEvent;
+
+/**
+ * Fan-out of one best-effort broadcast to n processes, up to the bytes the
+ * transport writes for each remote process.
+ * <br>
+ * Compares cloning the event for every destination, which
+ * BasicBroadcastSession used to do, with sending one copy addressed to all
+ * the remote processes, which the transport serializes once and writes to
+ * each of them.
+ * 
+ */
+public class BroadcastBenchmark {
+
+	private static final int[] VALUE = new int[16];
+	private static final int SELF = 0;
+
+	private static DecideEvent decision(int seqNumber) {
+		DecideEvent event = new DecideEvent();
+		ConsensusCodec.push(event.getMessage(), new int[] { seqNumber }, VALUE);
+		event.getMessage().pushLong(seqNumber);
+		return event;
+	}
+
+	private static void run(final int n) {
+		Harness.measure("broadcast, clone per destination, n=" + n,
+				new Harness.Operation() {
+					int seqNumber;
+
+					public long run() {
+						DecideEvent event = decision(seqNumber++);
+						long bytes = 0;
+						try {
+							for (int i = 0; i < n; i++) {
+								SendableEvent sending = i == n - 1 ? event
+										: (SendableEvent) event.cloneEvent();
+								if (i != SELF)
+									bytes += sending.getMessage().toByteArray().length;
+							}
+						} catch (CloneNotSupportedException e) {
+							throw new IllegalStateException(e);
+						}
+						return bytes;
+					}
+				});
+
+		Harness.measure("broadcast, one multicast copy, n=" + n,
+				new Harness.Operation() {
+					int seqNumber;
+
+					public long run() {
+						DecideEvent event = decision(seqNumber++);
+						long bytes = 0;
+						try {
+							SendableEvent sending = (SendableEvent) event.cloneEvent();
+							byte[] wire = sending.getMessage().toByteArray();
+							for (int i = 0; i < n; i++)
+								if (i != SELF)
+									bytes += wire.length;
+						} catch (CloneNotSupportedException e) {
+							throw new IllegalStateException(e);
+						}
+						return bytes;
+					}
+				});
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Best-effort broadcast fan-out (" + VALUE.length
+				+ "-value decision)");
+		run(4);
+		run(16);
+		run(64);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.beb;
+
+import tfsd.bench.Harness;
+import tfsd.consensus.ConsensusCodec;
+import tfsd.consensus.DecideEvent;
+
+/**
+ * Bytes sent by each of n in-process nodes, with BasicBroadcastSession (to
+ * every other process) and down the spanning trees of TreeBroadcastSession:
+ * the most any node sends for one broadcast, and the mean when every node
+ * broadcasts once.
+ * <br>
+ * The trees are walked as TreeBroadcastSession forwards a broadcast, also
+ * after an eighth of the processes crashed, and every correct process must
+ * be reached exactly once.
+ * 
+ */
+public class TreeBenchmark {
+
+	private static final int[] VALUE = new int[16];
+	private static final int FANOUT = Integer.getInteger("tree.fanout", 4);
+
+	// Size of a decision as BasicBroadcastSession sends it
+	private static int messageBytes() {
+		DecideEvent event = new DecideEvent();
+		ConsensusCodec.push(event.getMessage(), new int[] { 0 }, VALUE);
+		return event.getMessage().toByteArray().length;
+	}
+
+	private static void flat(int n, int bytes) {
+		Harness.report("flat n=" + n + ": one broadcast, max per node",
+				(double) (n - 1) * bytes, "B");
+		Harness.report("flat n=" + n + ": all broadcast, mean per node",
+				(double) (n - 1) * bytes, "B");
+	}
+
+	private static void tree(int n, int crashes, int bytes) {
+		SpanningTree tree = new SpanningTree(n, FANOUT);
+		for (int i = 0; i < crashes; i++)
+			tree.remove(1 + i * (n / crashes));
+
+		long[] sent = new long[n];
+		long oneBroadcast = 0;
+		int hops = 0;
+		for (int root = 0; root < n; root++) {
+			if (!tree.contains(root))
+				continue;
+			long[] before = sent.clone();
+
+			// Breadth first, as the broadcast goes down the tree
+			int[] reached = new int[n];
+			int[] level = new int[] { root };
+			reached[root]++;
+			int depth = 0;
+			while (level.length > 0) {
+				int next = 0;
+				int[][] children = new int[level.length][];
+				for (int i = 0; i < level.length; i++) {
+					children[i] = tree.children(root, level[i]);
+					sent[level[i]] += (long) children[i].length * (bytes + 8);
+					next += children[i].length;
+				}
+				int[] nextLevel = new int[next];
+				next = 0;
+				for (int i = 0; i < level.length; i++)
+					for (int child : children[i]) {
+						reached[child]++;
+						nextLevel[next++] = child;
+					}
+				if (nextLevel.length > 0)
+					depth++;
+				level = nextLevel;
+			}
+			hops = Math.max(hops, depth);
+			for (int p = 0; p < n; p++)
+				oneBroadcast = Math.max(oneBroadcast, sent[p] - before[p]);
+
+			for (int p = 0; p < n; p++)
+				if (reached[p] != (tree.contains(p) ? 1 : 0))
+					throw new IllegalStateException("process " + p
+							+ " reached " + reached[p] + " times from " + root);
+		}
+
+		long total = 0;
+		for (int p = 0; p < n; p++)
+			total += sent[p];
+		String name = "tree k=" + FANOUT + " n=" + n
+				+ (crashes > 0 ? " " + crashes + " crashed" : "");
+		Harness.report(name + ": one broadcast, max per node", oneBroadcast,
+				"B");
+		Harness.report(name + ": all broadcast, mean per node",
+				(double) total / (n - crashes), "B");
+		Harness.report(name + ": hops", hops, "");
+	}
+
+	public static void main(String[] args) {
+		int bytes = messageBytes();
+		Harness.title("Broadcast dissemination of a " + bytes
+				+ "-byte decision, bytes sent");
+		int[] sizes = new int[] { 8, 32, 128 };
+		for (int n : sizes) {
+			flat(n, bytes);
+			tree(n, 0, bytes);
+			tree(n, n / 8, bytes);
+		}
+	}
+}
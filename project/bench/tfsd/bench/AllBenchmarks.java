@@ -0,0 +1,48 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.bench;
+
+import app.RRTBenchmark;
+import tfsd.beb.BroadcastBenchmark;
+import tfsd.beb.TreeBenchmark;
+import tfsd.consensus.CodecBenchmark;
+import tfsd.consensus.QuorumBenchmark;
+import tfsd.lrb.DuplicateDetectionBenchmark;
+import tfsd.lrb.MessageIDBenchmark;
+import tfsd.nio.TransportBenchmark;
+import tfsd.shm.RingBenchmark;
+
+/**
+ * Runs every benchmark.
+ * 
+ */
+public class AllBenchmarks {
+
+	public static void main(String[] args) {
+		QuorumBenchmark.main(args);
+		CodecBenchmark.main(args);
+		MessageIDBenchmark.main(args);
+		DuplicateDetectionBenchmark.main(args);
+		BroadcastBenchmark.main(args);
+		TreeBenchmark.main(args);
+		TransportBenchmark.main(args);
+		RingBenchmark.main(args);
+		RRTBenchmark.main(args);
+	}
+}
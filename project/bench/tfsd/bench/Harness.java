@@ -0,0 +1,193 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal micro-benchmark harness.
+ * <br>
+ * Each operation is warmed up and then run for a few timed iterations;
+ * the mean time per operation is printed. Durations can be changed with
+ * the bench.warmup.ms and bench.iteration.ms system properties.
+ * <br>
+ * When bench.baseline names a file of earlier results, each measurement is
+ * printed with its ratio to the recorded one. When bench.save names a file,
+ * the measurements of the run are written to it on exit, replacing the
+ * ones recorded under the same names.
+ * 
+ */
+public class Harness {
+
+	/**
+	 * An operation to measure.
+	 */
+	public static abstract class Operation {
+
+		/**
+		 * Runs the operation once.
+		 * 
+		 * @return any value derived from the work done, so that the JIT can
+		 *         not discard it
+		 */
+		public abstract long run();
+	}
+
+	private static final long WARMUP_NANOS = Long.getLong("bench.warmup.ms",
+			1000) * 1000000L;
+	private static final long ITERATION_NANOS = Long.getLong(
+			"bench.iteration.ms", 500) * 1000000L;
+	private static final int ITERATIONS = 5;
+	private static final int BATCH = 16;
+
+	private static final String BASELINE = System.getProperty("bench.baseline");
+	private static final String SAVE = System.getProperty("bench.save");
+
+	public static volatile long sink;
+
+	private static final Map<String, Double> baseline = load(BASELINE);
+	private static final Map<String, Double> results = new LinkedHashMap<String, Double>();
+
+	static {
+		if (SAVE != null)
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					save(SAVE);
+				}
+			});
+	}
+
+	/**
+	 * Measures an operation.
+	 * 
+	 * @return the mean time per operation, in nanoseconds
+	 */
+	public static double measure(String name, Operation operation) {
+		long result = 0;
+
+		long end = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < BATCH; i++)
+				result += operation.run();
+		}
+
+		double total = 0;
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long now;
+			do {
+				for (int i = 0; i < BATCH; i++)
+					result += operation.run();
+				ops += BATCH;
+				now = System.nanoTime();
+			} while (now - start < ITERATION_NANOS);
+			total += (double) (now - start) / ops;
+		}
+		sink = result;
+
+		double mean = total / ITERATIONS;
+		Double recorded = baseline.get(name);
+		if (recorded == null)
+			System.out.printf("%-56s %14.1f ns/op %14.0f ops/s%n", name, mean,
+					1e9 / mean);
+		else
+			System.out.printf("%-56s %14.1f ns/op %14.0f ops/s %8.2fx baseline%n",
+					name, mean, 1e9 / mean, mean / recorded);
+		synchronized (results) {
+			results.put(name, mean);
+		}
+		return mean;
+	}
+
+	/**
+	 * Prints a value that is not a time measurement.
+	 */
+	public static void report(String name, double value, String unit) {
+		System.out.printf("%-56s %14.1f %s%n", name, value, unit);
+	}
+
+	/**
+	 * Prints the title of a group of measurements.
+	 */
+	public static void title(String title) {
+		System.out.println();
+		System.out.println("# " + title);
+	}
+
+	/**
+	 * Reads recorded results: one measurement per line, its name and its
+	 * time per operation separated by a tab, lines starting with # ignored.
+	 */
+	private static Map<String, Double> load(String fileName) {
+		Map<String, Double> recorded = new LinkedHashMap<String, Double>();
+		if (fileName == null || !new File(fileName).exists())
+			return recorded;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(fileName));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					int tab = line.lastIndexOf('\t');
+					if (line.startsWith("#") || tab < 0)
+						continue;
+					recorded.put(line.substring(0, tab),
+							Double.parseDouble(line.substring(tab + 1)));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read results from " + fileName + ": " + e);
+		}
+		return recorded;
+	}
+
+	private static void save(String fileName) {
+		Map<String, Double> recorded = load(fileName);
+		synchronized (results) {
+			if (results.isEmpty())
+				return;
+			recorded.putAll(results);
+		}
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(fileName));
+			try {
+				out.println("# ns/op, " + System.getProperty("java.vm.name") + " "
+						+ System.getProperty("java.version") + ", "
+						+ Runtime.getRuntime().availableProcessors() + " cpu");
+				for (Map.Entry<String, Double> result : recorded.entrySet())
+					out.println(result.getKey() + "\t"
+							+ String.format(Locale.ROOT, "%.1f", result.getValue()));
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not save results to " + fileName + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package tfsd.consensus;
+
+import net.sf.appia.core.message.Message;
+import tfsd.bench.Harness;
+
+/**
+ * Consensus headers on the wire: a proposal or decision header is pushed
+ * on a message, serialized, rebuilt on the receiving side and popped, the
+ * way ConsensusSession does on each step.
+ * 
+ */
+public class CodecBenchmark {
+
+	private static int[] value(int length) {
+		int[] value = new int[length];
+		for (int i = 0; i < length; i++)
+			value[i] = i * 37;
+		return value;
+	}
+
+	private static void run(final int length) {
+		final int[] value = value(length);
+
+		Harness.measure("proposal push, value of " + length,
+				new Harness.Operation() {
+					int timestamp;
+
+					public long run() {
+						Message msg = new Message();
+						ConsensusCodec.push(msg, new int[] { 1, timestamp++,
+								ConsensusSession.PHASE_1 }, value);
+						return msg.length();
+					}
+				});
+
+		Message proposal = new Message();
+		ConsensusCodec.push(proposal, new int[] { 1, 1000,
+				ConsensusSession.PHASE_1 }, value);
+		final byte[] wire = proposal.toByteArray();
+		Harness.measure("proposal pop, value of " + length,
+				new Harness.Operation() {
+					int[] header = new int[3];
+
+					public long run() {
+						Message msg = new Message(wire, 0, wire.length);
+						int[] popped = ConsensusCodec.pop(msg, header);
+						return header[1] + popped.length;
+					}
+				});
+
+		Harness.measure("decision round trip, value of " + length,
+				new Harness.Operation() {
+					int timestamp;
+					int[] header = new int[1];
+
+					public long run() {
+						Message msg = new Message();
+						ConsensusCodec.push(msg, new int[] { timestamp++ }, value);
+						byte[] bytes = msg.toByteArray();
+						msg = new Message(bytes, 0, bytes.length);
+						return ConsensusCodec.pop(msg, header).length + header[0];
+					}
+				});
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Consensus header encoding");
+		run(1);
+		run(16);
+		run(256);
+	}
+}
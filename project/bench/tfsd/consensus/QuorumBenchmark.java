@@ -0,0 +1,151 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tfsd.bench.Harness;
+
+/**
+ * Quorum handling of one consensus round: every process proposes once for
+ * phase 1, the quorum is checked on each arrival and the round is cleared.
+ * <br>
+ * Compares the proposal list scan that ConsensusSession used to do with
+ * the indexed ProposalStore, with stale proposals of other instances
+ * lying around.
+ * 
+ */
+public class QuorumBenchmark {
+
+	private static final int STALE_PROPOSALS = 1000;
+	private static final int TIMESTAMP = 1;
+	private static final int[] VALUE = { 7 };
+
+	/**
+	 * The quorum handling ConsensusSession did before ProposalStore.
+	 */
+	static class ScanQuorum {
+
+		List<ProposeEvent> proposalQueue = new ArrayList<ProposeEvent>();
+
+		Map<Integer, ProposeEvent> getQuorum(int timestamp, int phaseTimestamp,
+				int phase) {
+			Map<Integer, ProposeEvent> quorum = new HashMap<Integer, ProposeEvent>();
+			for (ProposeEvent oldProposal : proposalQueue) {
+				if (oldProposal.getPhase() != phase)
+					continue;
+				if (oldProposal.getTimestamp() != timestamp)
+					continue;
+				if (oldProposal.getPhaseTimestamp() != phaseTimestamp)
+					continue;
+				quorum.put(oldProposal.getProcess(), oldProposal);
+			}
+			return quorum;
+		}
+
+		void clearQuorums(int timestamp, int phaseTimestamp) {
+			clearQuorum(getQuorum(timestamp, phaseTimestamp, ConsensusSession.PHASE_1));
+			clearQuorum(getQuorum(timestamp, phaseTimestamp, ConsensusSession.PHASE_2));
+		}
+
+		void clearQuorum(Map<Integer, ProposeEvent> quorum) {
+			for (ProposeEvent quorumMember : quorum.values())
+				proposalQueue.remove(quorumMember);
+		}
+	}
+
+	private static ProposeEvent proposal(int timestamp, int phaseTimestamp,
+			int phase, int process, int[] value) {
+		ProposeEvent event = new ProposeEvent();
+		event.setTimestamp(timestamp);
+		event.setPhaseTimestamp(phaseTimestamp);
+		event.setPhase(phase);
+		event.setProcess(process);
+		event.setValue(value);
+		return event;
+	}
+
+	private static void run(final int n) {
+		final int majority = n / 2 + 1;
+
+		final ScanQuorum scan = new ScanQuorum();
+		for (int i = 0; i < STALE_PROPOSALS; i++)
+			scan.proposalQueue.add(proposal(TIMESTAMP + 1 + i / n, 0,
+					ConsensusSession.PHASE_1, i % n, new int[] { i }));
+		final ProposeEvent[] round = new ProposeEvent[n];
+		for (int p = 0; p < n; p++)
+			round[p] = proposal(TIMESTAMP, 0, ConsensusSession.PHASE_1, p, VALUE);
+
+		Harness.measure("quorum round, list scan, n=" + n,
+				new Harness.Operation() {
+					public long run() {
+						long found = 0;
+						for (int p = 0; p < n; p++) {
+							scan.proposalQueue.add(round[p]);
+							Map<Integer, ProposeEvent> quorum = scan.getQuorum(
+									TIMESTAMP, 0, ConsensusSession.PHASE_1);
+							if (quorum.size() >= majority) {
+								int[] first = quorum.values().iterator().next().getValue();
+								for (ProposeEvent proposed : quorum.values())
+									if (!Arrays.equals(proposed.getValue(), first))
+										found--;
+								found++;
+							}
+						}
+						scan.clearQuorums(TIMESTAMP, 0);
+						return found;
+					}
+				});
+
+		final ProposalStore store = new ProposalStore(n);
+		for (int i = 0; i < STALE_PROPOSALS; i++)
+			store.add(TIMESTAMP + 1 + i / n, 0, ConsensusSession.PHASE_1, i % n,
+					new int[] { i });
+
+		Harness.measure("quorum round, proposal store, n=" + n,
+				new Harness.Operation() {
+					public long run() {
+						long found = 0;
+						for (int p = 0; p < n; p++) {
+							QuorumTally quorum = store.add(TIMESTAMP, 0,
+									ConsensusSession.PHASE_1, p, VALUE);
+							if (quorum.size() >= majority) {
+								if (!quorum.isIdentical())
+									found--;
+								found++;
+							}
+						}
+						store.evictRound(TIMESTAMP, 0);
+						return found;
+					}
+				});
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Consensus quorum handling (" + STALE_PROPOSALS
+				+ " stale proposals)");
+		run(3);
+		run(16);
+		run(64);
+	}
+}
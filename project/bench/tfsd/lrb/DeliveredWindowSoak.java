@@ -0,0 +1,108 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.lrb;
+
+import java.util.Random;
+
+/**
+ * Long-running check of DeliveredWindow.
+ * <br>
+ * Delivers soak.messages sequence numbers (50 million by default) from
+ * soak.senders senders. Each sender's messages arrive shuffled within
+ * blocks of soak.reorder messages, and every message is followed by a
+ * duplicate of itself and of a message of the previous block, as
+ * retransmissions after a crash would be. Every new message must be
+ * accepted once, every duplicate rejected, and the window must be back
+ * to its watermark with bounded capacity at the end of each block.
+ * <br>
+ * Run with: ant bench -Dbench.class=tfsd.lrb.DeliveredWindowSoak
+ * 
+ */
+public class DeliveredWindowSoak {
+
+	public static void main(String[] args) {
+		long messages = Long.getLong("soak.messages", 50000000L);
+		int senders = Integer.getInteger("soak.senders", 8);
+		int reorder = Integer.getInteger("soak.reorder", 256);
+
+		Random random = new Random(42);
+		DeliveredWindow[] windows = new DeliveredWindow[senders];
+		for (int i = 0; i < senders; i++)
+			windows[i] = new DeliveredWindow();
+
+		int[] block = new int[reorder];
+		int maxCapacity = 0;
+		long delivered = 0;
+		long duplicates = 0;
+		long start = System.nanoTime();
+
+		for (int base = 0; delivered < messages; base += reorder) {
+			for (int sender = 0; sender < senders; sender++) {
+				DeliveredWindow window = windows[sender];
+
+				for (int i = 0; i < reorder; i++)
+					block[i] = base + i;
+				for (int i = reorder - 1; i > 0; i--) {
+					int j = random.nextInt(i + 1);
+					int swap = block[i];
+					block[i] = block[j];
+					block[j] = swap;
+				}
+
+				for (int i = 0; i < reorder; i++) {
+					int seqNumber = block[i];
+					check(window.add(seqNumber), "new message " + seqNumber
+							+ " rejected");
+					check(window.contains(seqNumber), "message " + seqNumber
+							+ " not recorded");
+					check(!window.add(seqNumber), "message " + seqNumber
+							+ " accepted twice");
+					if (base > 0) {
+						int old = base - 1 - random.nextInt(reorder);
+						check(!window.add(old), "old message " + old
+								+ " accepted again");
+						duplicates++;
+					}
+					duplicates++;
+				}
+
+				check(window.getLowWatermark() == base + reorder,
+						"watermark " + window.getLowWatermark()
+								+ " after block " + base);
+				check(window.getOutOfOrder() == 0, window.getOutOfOrder()
+						+ " messages left out of order");
+				maxCapacity = Math.max(maxCapacity, window.capacity());
+				check(maxCapacity <= 2 * reorder, "capacity grew to "
+						+ maxCapacity);
+				delivered += reorder;
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d messages and %d duplicates from %d senders in"
+				+ " %.1f s (%.0f ops/s), window capacity %d%n", delivered,
+				duplicates, senders, seconds, (delivered + duplicates)
+						/ seconds, maxCapacity);
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition)
+			throw new IllegalStateException(failure);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+package tfsd.lrb;
+
+import net.sf.appia.core.message.Message;
+import tfsd.bench.Harness;
+
+/**
+ * Duplicate detection of LazyRBSession.bebDeliver: the MessageID header is
+ * read from the message and checked against the delivered window of its
+ * sender.
+ * <br>
+ * Measures new messages arriving in order and out of order from n senders,
+ * and duplicates of messages already delivered, as relayed after a crash.
+ * 
+ */
+public class DuplicateDetectionBenchmark {
+
+	private static final int REORDER = 256;
+
+	private static DeliveredWindow[] windows(int n) {
+		DeliveredWindow[] delivered = new DeliveredWindow[n];
+		for (int i = 0; i < n; i++)
+			delivered[i] = new DeliveredWindow();
+		return delivered;
+	}
+
+	/**
+	 * Puts the header of a message on msg and does what bebDeliver does
+	 * with it before delivering.
+	 * 
+	 * @return 1 if the message is new
+	 */
+	private static long check(DeliveredWindow[] delivered, Message msg,
+			int process, int seqNumber) {
+		msg.pushLong(new MessageID(process, seqNumber).toLong());
+
+		long id = msg.popLong();
+		msg.pushLong(id);
+		MessageID msgID = MessageID.fromLong(id);
+		boolean added = delivered[msgID.process].add(msgID.seqNumber);
+
+		msg.popLong();
+		return added ? 1 : 0;
+	}
+
+	private static void run(final int n) {
+		Harness.measure("new message in order, n=" + n, new Harness.Operation() {
+			DeliveredWindow[] delivered = windows(n);
+			Message msg = new Message();
+			int process;
+			int[] seqNumbers = new int[n];
+
+			public long run() {
+				process = (process + 1) % n;
+				return check(delivered, msg, process, seqNumbers[process]++);
+			}
+		});
+
+		// Each sender's messages arrive in reverse within blocks
+		Harness.measure("new message out of order, n=" + n,
+				new Harness.Operation() {
+					DeliveredWindow[] delivered = windows(n);
+					Message msg = new Message();
+					int process;
+					int[] counts = new int[n];
+
+					public long run() {
+						process = (process + 1) % n;
+						int count = counts[process]++;
+						int block = count - count % REORDER;
+						int seqNumber = block + REORDER - 1 - count % REORDER;
+						return check(delivered, msg, process, seqNumber);
+					}
+				});
+
+		Harness.measure("duplicate, n=" + n, new Harness.Operation() {
+			DeliveredWindow[] delivered = windows(n);
+			Message msg = new Message();
+			int process;
+			int seqNumber;
+
+			{
+				for (int p = 0; p < n; p++)
+					for (int s = 0; s < REORDER; s++)
+						delivered[p].add(s);
+			}
+
+			public long run() {
+				process = (process + 1) % n;
+				seqNumber = (seqNumber + 1) % REORDER;
+				return check(delivered, msg, process, seqNumber);
+			}
+		});
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Reliable broadcast duplicate detection");
+		run(4);
+		run(64);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.lrb;
+
+import net.sf.appia.core.message.Message;
+import tfsd.bench.Harness;
+import tfsd.consensus.ConsensusCodec;
+
+/**
+ * Reliable broadcast header on the crash-free path: the sender pushes the
+ * MessageID on top of a consensus decision and serializes the message, the
+ * receiver rebuilds it, peeks the identifier for duplicate detection and
+ * pops it before delivering.
+ * <br>
+ * Compares Java serialization of the MessageID object, which LazyRBSession
+ * used to do, with the identifier packed in a long.
+ * 
+ */
+public class MessageIDBenchmark {
+
+	private static final int[] DECISION_HEADER = { 12345 };
+	private static final int[] DECISION = { 42 };
+
+	/**
+	 * Pushes the MessageID of a message, and reads it back the way
+	 * LazyRBSession does before removing it.
+	 */
+	static abstract class HeaderCodec {
+
+		abstract void push(Message msg, MessageID id);
+
+		abstract MessageID peek(Message msg);
+
+		abstract void pop(Message msg);
+	}
+
+	static final HeaderCodec OBJECT = new HeaderCodec() {
+		void push(Message msg, MessageID id) {
+			msg.pushObject(id);
+		}
+
+		MessageID peek(Message msg) {
+			return (MessageID) msg.peekObject();
+		}
+
+		void pop(Message msg) {
+			msg.popObject();
+		}
+	};
+
+	static final HeaderCodec LONG = new HeaderCodec() {
+		void push(Message msg, MessageID id) {
+			msg.pushLong(id.toLong());
+		}
+
+		MessageID peek(Message msg) {
+			long id = msg.popLong();
+			msg.pushLong(id);
+			return MessageID.fromLong(id);
+		}
+
+		void pop(Message msg) {
+			msg.popLong();
+		}
+	};
+
+	private static byte[] broadcast(HeaderCodec codec, int seqNumber) {
+		Message msg = new Message();
+		ConsensusCodec.push(msg, DECISION_HEADER, DECISION);
+		codec.push(msg, new MessageID(1, seqNumber));
+		return msg.toByteArray();
+	}
+
+	private static long deliver(HeaderCodec codec, byte[] wire) {
+		Message msg = new Message(wire, 0, wire.length);
+		MessageID id = codec.peek(msg);
+		codec.pop(msg);
+		int[] header = new int[1];
+		int[] value = ConsensusCodec.pop(msg, header);
+		if (value[0] != DECISION[0])
+			throw new IllegalStateException("corrupted message");
+		return id.seqNumber + value[0];
+	}
+
+	private static void run(String name, final HeaderCodec codec) {
+		Message payload = new Message();
+		ConsensusCodec.push(payload, DECISION_HEADER, DECISION);
+		int payloadBytes = payload.toByteArray().length;
+		int bytes = broadcast(codec, 1000).length;
+
+		Harness.report("bytes per message, " + name, bytes, "bytes");
+		Harness.report("header bytes, " + name, bytes - payloadBytes, "bytes");
+
+		Harness.measure("broadcast, " + name, new Harness.Operation() {
+			int seqNumber;
+
+			public long run() {
+				return broadcast(codec, seqNumber++).length;
+			}
+		});
+
+		final byte[] wire = broadcast(codec, 1000);
+		Harness.measure("delivery, " + name, new Harness.Operation() {
+			public long run() {
+				return deliver(codec, wire);
+			}
+		});
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Reliable broadcast MessageID header");
+		run("pushObject", OBJECT);
+		run("pushLong", LONG);
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.nio;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.appia.core.Appia;
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.ChannelCursor;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventScheduler;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.QoS;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import tfsd.bench.Harness;
+
+/**
+ * Messages per second one connection carries over loopback, with
+ * TcpCompleteLayer and with NioTransportLayer.
+ * <br>
+ * Two Appia instances, each with its own thread, run a channel made of the
+ * transport and a counting layer. One of them sends a stream of events to
+ * the other, keeping at most WINDOW of them in flight. The endpoints are
+ * left running, as the reader threads of TcpCompleteLayer spin once their
+ * channel is closed.
+ * 
+ */
+public class TransportBenchmark {
+
+	private static final int MESSAGES = Integer.getInteger(
+			"bench.transport.messages", 200000);
+	private static final int WINDOW = 4096;
+	private static final int BASE_PORT = 27100;
+
+	/**
+	 * Counts the events that arrive and opens the transport socket.
+	 */
+	public static class CountingLayer extends Layer {
+
+		public CountingLayer() {
+			evProvide = new Class[] { RegisterSocketEvent.class,
+					SendableEvent.class };
+			evRequire = new Class[0];
+			evAccept = new Class[] { RegisterSocketEvent.class,
+					SendableEvent.class, TcpUndeliveredEvent.class,
+					ChannelInit.class, ChannelClose.class };
+		}
+
+		public Session createSession() {
+			return new CountingSession(this);
+		}
+	}
+
+	public static class CountingSession extends Session {
+
+		private InetSocketAddress address;
+		private final CountDownLatch registered = new CountDownLatch(1);
+		volatile long received;
+
+		public CountingSession(Layer layer) {
+			super(layer);
+		}
+
+		public void handle(Event event) {
+			try {
+				if (event instanceof ChannelInit) {
+					event.go();
+					RegisterSocketEvent register = new RegisterSocketEvent(
+							event.getChannel(), Direction.DOWN, this);
+					register.port = address.getPort();
+					register.localHost = address.getAddress();
+					register.go();
+				} else if (event instanceof RegisterSocketEvent) {
+					if (((RegisterSocketEvent) event).error)
+						throw new IllegalStateException("Could not bind "
+								+ address);
+					registered.countDown();
+				} else if (event instanceof SendableEvent
+						&& event.getDir() == Direction.UP) {
+					received++;
+				} else if (!(event instanceof TcpUndeliveredEvent)) {
+					event.go();
+				}
+			} catch (AppiaEventException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static class Endpoint {
+		final Appia appia = new Appia();
+		final Channel channel;
+		final CountingSession session;
+
+		Endpoint(Layer transport, InetSocketAddress address)
+				throws AppiaException, InterruptedException {
+			CountingLayer counting = new CountingLayer();
+			QoS qos = new QoS("transport benchmark", new Layer[] { transport,
+					counting });
+			channel = qos.createUnboundChannel("transportBench",
+					new EventScheduler(appia));
+			session = (CountingSession) counting.createSession();
+			session.address = address;
+			ChannelCursor cursor = channel.getCursor();
+			cursor.top();
+			cursor.setSession(session);
+			channel.start();
+
+			Thread thread = new Thread("Appia " + address) {
+				public void run() {
+					appia.instanceRun();
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+			session.registered.await();
+		}
+	}
+
+	private static void run(String name, Layer senderTransport,
+			Layer receiverTransport, int port, int payload) throws Exception {
+		InetAddress loopback = InetAddress.getByName("127.0.0.1");
+		InetSocketAddress senderAddress = new InetSocketAddress(loopback, port);
+		InetSocketAddress receiverAddress = new InetSocketAddress(loopback,
+				port + 1);
+		Endpoint sender = new Endpoint(senderTransport, senderAddress);
+		Endpoint receiver = new Endpoint(receiverTransport, receiverAddress);
+
+		byte[] bytes = new byte[payload];
+		long start = 0;
+		// The first tenth of the messages warms up the connection
+		int warmup = MESSAGES / 10;
+		for (int i = 0; i < warmup + MESSAGES; i++) {
+			if (i == warmup) {
+				while (receiver.session.received < warmup)
+					Thread.yield();
+				start = System.nanoTime();
+			}
+			while (i - receiver.session.received >= WINDOW)
+				Thread.yield();
+
+			SendableEvent event = new SendableEvent();
+			event.getMessage().setByteArray(bytes, 0, bytes.length);
+			event.source = senderAddress;
+			event.dest = receiverAddress;
+			event.asyncGo(sender.channel, Direction.DOWN);
+		}
+		while (receiver.session.received < warmup + MESSAGES)
+			Thread.yield();
+		long elapsed = System.nanoTime() - start;
+
+		Harness.report(name + ", " + payload + " B", MESSAGES * 1e9 / elapsed,
+				"msgs/s");
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Transport throughput, one connection over loopback ("
+				+ MESSAGES + " messages)");
+		try {
+			int port = BASE_PORT;
+			for (int payload : new int[] { 64, 1024 }) {
+				run("TcpCompleteLayer", new TcpCompleteLayer(),
+						new TcpCompleteLayer(), port, payload);
+				port += 2;
+				run("NioTransportLayer", new NioTransportLayer(),
+						new NioTransportLayer(), port, payload);
+				port += 2;
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
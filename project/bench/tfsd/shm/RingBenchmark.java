@@ -0,0 +1,141 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ */
+
+package tfsd.shm;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import tfsd.bench.Harness;
+
+/**
+ * Latency of one hop between two threads, through a pair of rings and
+ * through a loopback TCP connection.
+ * <br>
+ * Each side maps the rings on its own, as two processes would. An echo
+ * thread sends every frame back, and the hop is half the round trip. Both
+ * threads yield while they wait, so that they can share one processor.
+ * 
+ */
+public class RingBenchmark {
+
+	private static final int CAPACITY = 1 << 20;
+	private static final int PAYLOAD = 64;
+
+	private static double ring() throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		final File ping = File.createTempFile("ping", ".ring", dir);
+		final File pong = File.createTempFile("pong", ".ring", dir);
+		ping.deleteOnExit();
+		pong.deleteOnExit();
+
+		final Ring pingIn = new Ring(ping, CAPACITY);
+		final Ring pongOut = new Ring(pong, CAPACITY);
+		Thread echo = new Thread("ring echo") {
+			public void run() {
+				while (true) {
+					byte[] frame = pingIn.poll();
+					if (frame == null)
+						Thread.yield();
+					else
+						while (!pongOut.offer(frame))
+							Thread.yield();
+				}
+			}
+		};
+		echo.setDaemon(true);
+		echo.start();
+
+		final Ring pingOut = new Ring(ping, CAPACITY);
+		final Ring pongIn = new Ring(pong, CAPACITY);
+		final byte[] frame = new byte[PAYLOAD];
+		return Harness.measure("ring round trip, " + PAYLOAD + " B",
+				new Harness.Operation() {
+					public long run() {
+						while (!pingOut.offer(frame))
+							Thread.yield();
+						byte[] reply;
+						while ((reply = pongIn.poll()) == null)
+							Thread.yield();
+						return reply.length;
+					}
+				});
+	}
+
+	private static double tcp() throws IOException {
+		final ServerSocket server = new ServerSocket(0, 1, InetAddress
+				.getByName("127.0.0.1"));
+		Thread echo = new Thread("tcp echo") {
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					socket.setTcpNoDelay(true);
+					DataInputStream in = new DataInputStream(socket
+							.getInputStream());
+					OutputStream out = socket.getOutputStream();
+					byte[] frame = new byte[PAYLOAD];
+					while (true) {
+						in.readFully(frame);
+						out.write(frame);
+					}
+				} catch (IOException e) {
+					// The connection was closed
+				}
+			}
+		};
+		echo.setDaemon(true);
+		echo.start();
+
+		Socket socket = new Socket(server.getInetAddress(), server
+				.getLocalPort());
+		socket.setTcpNoDelay(true);
+		final DataInputStream in = new DataInputStream(socket.getInputStream());
+		final OutputStream out = socket.getOutputStream();
+		final byte[] frame = new byte[PAYLOAD];
+		double mean = Harness.measure("loopback TCP round trip, " + PAYLOAD
+				+ " B", new Harness.Operation() {
+			public long run() {
+				try {
+					out.write(frame);
+					in.readFully(frame);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return frame.length;
+			}
+		});
+		socket.close();
+		server.close();
+		return mean;
+	}
+
+	public static void main(String[] args) {
+		Harness.title("Hop between co-located processes");
+		try {
+			Harness.report("ring hop", ring() / 2, "ns");
+			Harness.report("loopback TCP hop", tcp() / 2, "ns");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
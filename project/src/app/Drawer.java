@@ -30,12 +30,15 @@ class Surface extends JPanel {
 
         Random r = new Random();
 
-        for(Point p : tree.vertices) {
-        	g2d.drawLine((int)p.getX(), (int)p.getY(),(int) p.getX(),(int) p.getY());
+        for(int i = 0; i < tree.getVertexCount(); i++) {
+        	int p = tree.getVertex(i);
+        	g2d.drawLine((int)tree.getX(p), (int)tree.getY(p),(int) tree.getX(p),(int) tree.getY(p));
         }
         g2d.setColor(Color.red);
-        for(Edge e : tree.edges) {
-        	g2d.drawLine((int)e.getBegin().getX(),(int) e.getBegin().getY(),(int) e.getEnd().getX(),(int) e.getEnd().getY());
+        for(int i = 0; i < tree.getEdgeCount(); i++) {
+        	int b = tree.getBegin(i);
+        	int e = tree.getEnd(i);
+        	g2d.drawLine((int)tree.getX(b),(int) tree.getY(b),(int) tree.getX(e),(int) tree.getY(e));
         }
         
     }
@@ -0,0 +1,162 @@
+package app;
+
+/**
+ * Distance computations of the RRT on primitive coordinates.
+ * <br>
+ * Distances are computed squared, without Math.pow, and no method
+ * allocates. The scans are plain loops over coordinate arrays that keep
+ * the last minimum, as the callers' tie rules require. Ties are decided on
+ * the square roots, as RRTGenerator did when it compared distances: sqrt
+ * maps squared distances a few ulps apart to the same value, and those
+ * are ties too. The roots are only taken for such close values.
+ * <br>
+ * The nearest point of a segment is its beginning when the point projects
+ * before it, its end when it projects after it, and the projection
+ * otherwise; every method below takes the same branches on the same
+ * values, so they agree on which of the three it is.
+ */
+public final class Geometry {
+
+	public static final int BEGIN = -1;
+	public static final int INSIDE = 0;
+	public static final int END = 1;
+
+	// Squared distances with the same root are less than 3 ulps apart, well
+	// under this relative gap
+	private static final double CLOSE = 1 + 0x1p-49;
+
+	private Geometry() {
+	}
+
+	public static double distanceSquared(double x1, double y1, double x2,
+			double y2) {
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Tells whether a squared distance is not above the best one, as
+	 * comparing their square roots would.
+	 */
+	public static boolean noFarther(double d, double best) {
+		return d <= best || d <= best * CLOSE && Math.sqrt(d) == Math.sqrt(best);
+	}
+
+	/**
+	 * Tells whether two squared distances have the same square root.
+	 */
+	public static boolean sameRoot(double d1, double d2) {
+		if (d1 == d2)
+			return true;
+		double low = Math.min(d1, d2);
+		return Math.max(d1, d2) <= low * CLOSE
+				&& Math.sqrt(d1) == Math.sqrt(d2);
+	}
+
+	/**
+	 * Gets the squared distance from (x, y) to the segment from (bx, by) to
+	 * (ex, ey).
+	 */
+	public static double segmentDistanceSquared(double bx, double by,
+			double ex, double ey, double x, double y) {
+		double vx = ex - bx, vy = ey - by;
+		double wx = x - bx, wy = y - by;
+		double c1 = wx * vx + wy * vy;
+		if (c1 <= 0)
+			return wx * wx + wy * wy;
+		double c2 = vx * vx + vy * vy;
+		if (c2 <= c1)
+			return distanceSquared(x, y, ex, ey);
+		double b = c1 / c2;
+		return distanceSquared(x, y, bx + b * vx, by + b * vy);
+	}
+
+	/**
+	 * Gets where the point of the segment nearest to (x, y) lies: BEGIN,
+	 * END or INSIDE.
+	 */
+	public static int side(double bx, double by, double ex, double ey,
+			double x, double y) {
+		double vx = ex - bx, vy = ey - by;
+		double c1 = (x - bx) * vx + (y - by) * vy;
+		if (c1 <= 0)
+			return BEGIN;
+		if (vx * vx + vy * vy <= c1)
+			return END;
+		return INSIDE;
+	}
+
+	/**
+	 * Gets the x coordinate of the projection of (x, y) on the line of the
+	 * segment, the nearest point when side is INSIDE.
+	 */
+	public static double projectionX(double bx, double by, double ex,
+			double ey, double x, double y) {
+		double vx = ex - bx, vy = ey - by;
+		return bx + projection(vx, vy, x - bx, y - by) * vx;
+	}
+
+	/**
+	 * Gets the y coordinate of the projection of (x, y) on the line of the
+	 * segment, the nearest point when side is INSIDE.
+	 */
+	public static double projectionY(double bx, double by, double ex,
+			double ey, double x, double y) {
+		double vx = ex - bx, vy = ey - by;
+		return by + projection(vx, vy, x - bx, y - by) * vy;
+	}
+
+	private static double projection(double vx, double vy, double wx,
+			double wy) {
+		return (wx * vx + wy * vy) / (vx * vx + vy * vy);
+	}
+
+	/**
+	 * Finds the point of [from, to) nearest to (x, y).
+	 *
+	 * @return its index, the last one among equally near points, or -1 if
+	 *         the range is empty
+	 */
+	public static int nearestPoint(double[] xs, double[] ys, int from, int to,
+			double x, double y) {
+		int nearest = -1;
+		double best = Double.POSITIVE_INFINITY;
+		double limit = best;
+		for (int i = from; i < to; i++) {
+			double dx = x - xs[i];
+			double dy = y - ys[i];
+			double d = dx * dx + dy * dy;
+			if (d <= limit && noFarther(d, best)) {
+				best = d;
+				limit = d * CLOSE;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Finds the segment of [from, to) nearest to (x, y), segment i going
+	 * from (bxs[i], bys[i]) to (exs[i], eys[i]).
+	 *
+	 * @return its index, the last one among equally near segments, or -1 if
+	 *         the range is empty
+	 */
+	public static int nearestSegment(double[] bxs, double[] bys,
+			double[] exs, double[] eys, int from, int to, double x, double y) {
+		int nearest = -1;
+		double best = Double.POSITIVE_INFINITY;
+		double limit = best;
+		for (int i = from; i < to; i++) {
+			double d = segmentDistanceSquared(bxs[i], bys[i], exs[i], eys[i],
+					x, y);
+			if (d <= limit && noFarther(d, best)) {
+				best = d;
+				limit = d * CLOSE;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,177 @@
+package app;
+
+/**
+ * Two-dimensional tree over the points of a Tree, for nearest-point queries.
+ * <br>
+ * The tree is built once, balanced, and stored implicitly in an array: the
+ * node of a range of the array is its middle element, splitting the points
+ * on x or y in turn. Removed points are only marked, and each node counts
+ * the points left under it so that emptied subtrees are skipped.
+ * <br>
+ * Queries answer exactly what a scan of the points in order would: squared
+ * distances are compared as Geometry compares them, and among points at the
+ * same distance the one numbered last wins.
+ */
+public class KdTree {
+
+	// Relative slack on the pruning bound, covering the rounding of the
+	// distances so that no subtree holding an equally near point is skipped
+	private static final double SLACK = 1e-9;
+
+	private final double[] xs;
+	private final double[] ys;
+	// Number of the point of each node
+	private final int[] ids;
+	// Node of each point, by number
+	private final int[] nodes;
+	private final boolean[] removed;
+	// Points left in the range of which the element is the node
+	private final int[] alive;
+
+	private int nearestId;
+	// Squared distance to the nearest point found
+	private double distance;
+
+	/**
+	 * Builds the tree over the points the Tree holds so far.
+	 */
+	public KdTree(Tree tree) {
+		int n = tree.getPointCount();
+		xs = new double[n];
+		ys = new double[n];
+		ids = new int[n];
+		nodes = new int[n];
+		removed = new boolean[n];
+		alive = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			xs[i] = tree.getX(i);
+			ys[i] = tree.getY(i);
+			ids[i] = i;
+		}
+		build(0, n, 0);
+		for (int i = 0; i < n; i++)
+			nodes[ids[i]] = i;
+	}
+
+	/**
+	 * Gets the number of points left.
+	 */
+	public int size() {
+		return ids.length == 0 ? 0 : alive[ids.length >>> 1];
+	}
+
+	/**
+	 * Finds the point nearest to (x, y).
+	 *
+	 * @return its number, or -1 if none is left
+	 */
+	public int findNearest(double x, double y) {
+		nearestId = -1;
+		distance = Double.POSITIVE_INFINITY;
+		search(x, y, 0, ids.length, 0);
+		return nearestId;
+	}
+
+	/**
+	 * Removes a point.
+	 *
+	 * @return false if the point was already removed
+	 */
+	public boolean remove(int point) {
+		int node = nodes[point];
+		if (removed[node])
+			return false;
+		removed[node] = true;
+
+		// Walk down to the node, through the ranges holding it
+		int lo = 0;
+		int hi = ids.length;
+		while (true) {
+			int mid = (lo + hi) >>> 1;
+			alive[mid]--;
+			if (node == mid)
+				return true;
+			if (node < mid)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+	}
+
+	private void build(int lo, int hi, int depth) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+		alive[mid] = hi - lo;
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+
+	/**
+	 * Partially sorts [lo, hi] on a coordinate so that k holds the element
+	 * that would be there once sorted.
+	 */
+	private void select(int lo, int hi, int k, double[] keys) {
+		while (hi > lo) {
+			double pivot = keys[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot)
+					i++;
+				while (keys[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+	}
+
+	private void search(double x, double y, int lo, int hi, int depth) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		if (alive[mid] == 0)
+			return;
+
+		if (!removed[mid]) {
+			double current = Geometry.distanceSquared(x, y, xs[mid], ys[mid]);
+			if (Geometry.sameRoot(current, distance) ? ids[mid] > nearestId
+					: current < distance) {
+				nearestId = ids[mid];
+				distance = current;
+			}
+		}
+
+		double offset = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+		if (offset < 0) {
+			search(x, y, lo, mid, depth + 1);
+			if (offset * offset <= distance * (1 + SLACK))
+				search(x, y, mid + 1, hi, depth + 1);
+		} else {
+			search(x, y, mid + 1, hi, depth + 1);
+			if (offset * offset <= distance * (1 + SLACK))
+				search(x, y, lo, mid, depth + 1);
+		}
+	}
+}
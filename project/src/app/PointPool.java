@@ -0,0 +1,63 @@
+package app;
+
+/**
+ * Points not in the tree yet, by position.
+ * <br>
+ * Taking a point moves the last one of the pool to its position, so that
+ * it takes constant time. Every replica takes the same positions in the
+ * same order, so their pools stay the same.
+ */
+public class PointPool {
+	private final int[] points;
+	// Position of each point in the pool, by number
+	private final int[] positions;
+	private int size;
+
+	/**
+	 * Creates a pool of the points numbered from 0 to n - 1, in order.
+	 */
+	public PointPool(int n) {
+		points = new int[n];
+		positions = new int[n];
+		for (int i = 0; i < n; i++) {
+			points[i] = i;
+			positions[i] = i;
+		}
+		size = n;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of the point at a position.
+	 */
+	public int get(int position) {
+		return points[position];
+	}
+
+	/**
+	 * Takes the point at a position out of the pool.
+	 *
+	 * @return its number
+	 */
+	public int take(int position) {
+		int point = points[position];
+		int last = points[--size];
+		points[position] = last;
+		positions[last] = position;
+		return point;
+	}
+
+	/**
+	 * Takes a point out of the pool.
+	 */
+	public void remove(int point) {
+		take(positions[point]);
+	}
+}
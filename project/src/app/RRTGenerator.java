@@ -7,6 +7,8 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
@@ -19,22 +21,28 @@ import tfsd.SampleApplSession;
 import tfsd.SampleSendableEvent;
 
 public class RRTGenerator {
-	List<Point> points;
+	// Points not in the tree yet
+	PointPool points;
 	
 	int height;
 	int width;
 	Tree tree;
+	// Points not in the tree yet, for nearest-point queries
+	KdTree index;
+	// Edges of the tree, for nearest-segment queries
+	SegmentIndex edgeIndex;
+	// Slot in the tree of the edges of edgeIndex, by id
+	private int[] slots = new int[64];
 
 	private List<Integer> decisions;
-	public int decision;
+	LinkedList<Integer> pendingDecisions;
 
 	public RRTGenerator(String fileName) {
 		
 		this.tree = new Tree();
-		points = new ArrayList<Point>();
 		
 		decisions = new ArrayList<Integer>();
-		decision = -1;
+		pendingDecisions = new LinkedList<Integer>();
 
 		// Read file, get the list of vertices
 		BufferedReader br;
@@ -49,8 +57,8 @@ public class RRTGenerator {
 			while ((line = br.readLine()) != null) {
 				// process the line.
 				String tokens[] = line.trim().split(" ");
-				points.add(new Point(Double.parseDouble(tokens[0]), Double
-						.parseDouble(tokens[1])));
+				tree.addPoint(Double.parseDouble(tokens[0]), Double
+						.parseDouble(tokens[1]));
 			}
 			br.close();
 		} catch (FileNotFoundException e) {
@@ -58,31 +66,52 @@ public class RRTGenerator {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		createIndexes();
 
 	}
 
+	public RRTGenerator(int width, int height, List<Point> points) {
+		this.tree = new Tree(points.size());
+		for (Point p : points)
+			tree.addPoint(p.x, p.y);
+		this.width = width;
+		this.height = height;
+
+		decisions = new ArrayList<Integer>();
+		pendingDecisions = new LinkedList<Integer>();
+		createIndexes();
+	}
+
+	private void createIndexes() {
+		points = new PointPool(tree.getPointCount());
+		index = new KdTree(tree);
+		// Cells about as large as the mean spacing of the points
+		edgeIndex = new SegmentIndex(Math.max(Math.max(width, height), 1)
+				/ Math.sqrt(tree.getPointCount() + 1));
+	}
+
 	public void printPoints() {
 		System.err.println("width : " + width + " , height : " + height);
-		for (Point t : points) {
+		for (Point t : getPoints()) {
 			System.err.println(t.toString());
 		}
 
 	}
 
+	/**
+	 * Gets a copy of the points not in the tree yet, in the order of the
+	 * pool.
+	 */
 	public List<Point> getPoints() {
-		return points;
+		List<Point> list = new ArrayList<Point>(points.size());
+		for (int i = 0; i < points.size(); i++)
+			list.add(new Point(tree.getX(points.get(i)), tree.getY(points.get(i))));
+		return list;
 	}
 
 
 	public synchronized void generate() {
-		// Take a point
-		Point selection = new Point(width / 2, height / 2);
-		Point nearest = findNearest(selection, points);
-
-		tree.vertices.add(nearest);
-		tree.edges.add(new Edge(nearest, nearest));
-
-		points.remove(nearest);
+		plant();
 
 		// Generate a random number for proposal
 		Random rand = new Random();
@@ -99,24 +128,27 @@ public class RRTGenerator {
 				SampleSendableEvent event = new SampleSendableEvent();
 				event.setCommand("propose");
 				Message message = event.getMessage();
-				message.pushString(Integer.toString(dex));
+				message.pushInt(dex);
 				event.asyncGo(SampleApplSession.rbChannel, Direction.DOWN);
 			} catch (AppiaEventException e1) {
 				e1.printStackTrace();
 			}
 
 			try {
-				this.wait();
+				while (pendingDecisions.isEmpty())
+					this.wait();
 			} catch (InterruptedException e) {}
 			
-			System.err.println("[RRT] Got decision " + decision);
-			decisions.add(decision);
-			
-			selection = points.get(decision);
-			connect(selection, tree.edges);
-
-			tree.vertices.add(selection);
-			points.remove(decision);
+			// Consensus batches may decide several values for one proposal
+			while (!pendingDecisions.isEmpty() && points.size() > 0) {
+				int decision = pendingDecisions.removeFirst();
+				System.err.println("[RRT] Got decision " + decision);
+				decisions.add(decision);
+
+				// Values decided in the same batch were proposed against the
+				// same list, so later ones may point past its shrunk end
+				grow(decision % points.size());
+			}
 			
 			SwingUtilities.invokeLater(new Runnable() {
 	            @Override
@@ -137,6 +169,34 @@ public class RRTGenerator {
 		finished();
 	}
 
+	/**
+	 * Starts the tree from the point nearest to the center.
+	 */
+	void plant() {
+		int root = findNearest(width / 2, height / 2);
+
+		tree.addVertex(root);
+		addEdge(root, root);
+
+		points.remove(root);
+		index.remove(root);
+	}
+
+	/**
+	 * Adds a point to the tree.
+	 *
+	 * @param position
+	 *            the position of the point in the pool of points not in the
+	 *            tree yet
+	 */
+	void grow(int position) {
+		int selection = points.take(position);
+		connect(selection);
+
+		tree.addVertex(selection);
+		index.remove(selection);
+	}
+
 	private void finished() {
 		System.err.println("Finished");
 //		tree.printTree();
@@ -146,13 +206,23 @@ public class RRTGenerator {
 		System.out.println();
 	}
 
+	/**
+	 * Finds the point not in the tree yet that is nearest to (x, y), as
+	 * findNearest(t, list) would with the points in the order they were read.
+	 *
+	 * @return the number of the point in the tree, or -1 if none is left
+	 */
+	public int findNearest(double x, double y) {
+		return index.findNearest(x, y);
+	}
+
 	public Point findNearest(Point t, List<Point> points) {
 		Point nearest = null;
-		double distance = Double.MAX_VALUE;
+		double distance = Double.POSITIVE_INFINITY;
 		double current;
 		for (Point p : points) {
-			current = getDistance(t, p);
-			if (current <= distance) {
+			current = Geometry.distanceSquared(t.x, t.y, p.x, p.y);
+			if (Geometry.noFarther(current, distance)) {
 				nearest = p;
 				distance = current;
 			}
@@ -161,73 +231,80 @@ public class RRTGenerator {
 	}
 
 	public double getDistance(Point s, Point t) {
-		double result = Math.sqrt(Math.pow(s.getX() - t.getX(), 2)
-				+ Math.pow(s.getY() - t.getY(), 2));
-		// System.out.println(result);
-		return result;
+		return Math.sqrt(Geometry.distanceSquared(s.x, s.y, t.x, t.y));
+	}
+
+	/**
+	 * Joins a point to the tree, as connect(s, edges) would with the edges
+	 * in the order they were added. The edge split to do so is replaced in
+	 * its slot rather than removed.
+	 */
+	public void connect(int s) {
+		int id = edgeIndex.findNearest(tree.getX(s), tree.getY(s));
+		int slot = slots[id];
+		int begin = tree.getBegin(slot);
+		int end = tree.getEnd(slot);
+
+		switch (edgeIndex.getStatus()) {
+		case Geometry.INSIDE:
+			int nearest = tree.addPoint(edgeIndex.getNearestX(),
+					edgeIndex.getNearestY());
+			edgeIndex.remove(id);
+			setEdge(slot, begin, nearest);
+			addEdge(end, nearest);
+			addEdge(s, nearest);
+			break;
+		case Geometry.END:
+			addEdge(s, end);
+			break;
+		case Geometry.BEGIN:
+			addEdge(s, begin);
+			break;
+		}
+	}
+
+	private void addEdge(int begin, int end) {
+		setEdge(tree.addEdge(begin, end), begin, end);
+	}
+
+	private void setEdge(int slot, int begin, int end) {
+		tree.setEdge(slot, begin, end);
+		int id = edgeIndex.add(tree.getX(begin), tree.getY(begin),
+				tree.getX(end), tree.getY(end));
+		if (id == slots.length)
+			slots = Arrays.copyOf(slots, id * 2);
+		slots[id] = slot;
 	}
 
 	public void connect(Point s, List<Edge> edges) {
-		Point nearest = null;
-		/*
-		 * distance( Point P, Segment P0:P1 ) { v = P1 - P0 w = P - P0
-		 * 
-		 * if ( (c1 = w·v) <= 0 ) // before P0 return d(P, P0) if ( (c2 = v·v)
-		 * <= c1 ) // after P1 return d(P, P1)
-		 * 
-		 * b = c1 / c2 Pb = P0 + bv return d(P, Pb) }
-		 */
-
-		double distance = Double.MAX_VALUE;
+		double distance = Double.POSITIVE_INFINITY;
 		Edge nearestEdge = null;
-		int status = 0;
 		for (Edge edge : edges) {
-			Point begin = edge.getBegin();
-			Point end = edge.getEnd();
-
-			Point v = new Point(end.x - begin.x, end.y - begin.y);
-			Point w = new Point(s.x - begin.x, s.y - begin.y);
-
-			double c1 = w.x * v.x + w.y * v.y;
-			double c2 = v.x * v.x + v.y * v.y;
-			if (c1 <= 0) {
-				if (getDistance(s, begin) <= distance) {
-					nearest = begin;
-					nearestEdge = edge;
-					distance = getDistance(s, begin);
-					status = -1;
-				}
-				continue;
-			}
-			if (c2 <= c1) {
-				if (getDistance(s, end) <= distance) {
-					nearest = end;
-					nearestEdge = edge;
-					distance = getDistance(s, end);
-					status = 1;
-				}
-				continue;
-			}
-
-			double b = c1 / c2;
-			Point Pb = new Point(begin.x + b * v.x, begin.y + b * v.y);
-			if (getDistance(s, Pb) <= distance) {
-				nearest = Pb;
+			double current = Geometry.segmentDistanceSquared(edge.begin.x,
+					edge.begin.y, edge.end.x, edge.end.y, s.x, s.y);
+			if (Geometry.noFarther(current, distance)) {
 				nearestEdge = edge;
-				distance = getDistance(s, Pb);
-				status = 0;
+				distance = current;
 			}
 		}
-		switch (status) {
-		case 0:
-			edges.add(new Edge(nearestEdge.getBegin(), nearest));
-			edges.add(new Edge(nearestEdge.getEnd(), nearest));
+
+		Point begin = nearestEdge.getBegin();
+		Point end = nearestEdge.getEnd();
+		switch (Geometry.side(begin.x, begin.y, end.x, end.y, s.x, s.y)) {
+		case Geometry.INSIDE:
+			Point nearest = new Point(Geometry.projectionX(begin.x, begin.y,
+					end.x, end.y, s.x, s.y), Geometry.projectionY(begin.x,
+					begin.y, end.x, end.y, s.x, s.y));
+			edges.add(new Edge(begin, nearest));
+			edges.add(new Edge(end, nearest));
 			edges.add(new Edge(s, nearest));
 			edges.remove(nearestEdge);
 			break;
-		case 1:
-		case -1:
-			edges.add(new Edge(s, nearest));
+		case Geometry.END:
+			edges.add(new Edge(s, end));
+			break;
+		case Geometry.BEGIN:
+			edges.add(new Edge(s, begin));
 			break;
 		}
 
@@ -83,7 +83,7 @@ public class RRTHandler extends Thread {
 	public void notifyDecision(int decision) {
 		synchronized (generator) {
 
-			generator.decision = decision;
+			generator.pendingDecisions.add(decision);
 			generator.notify();
 		}
 	}
@@ -0,0 +1,361 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the edges of a tree, for nearest-segment queries.
+ * <br>
+ * Edges are kept in a hierarchy of grids whose cell size doubles from one
+ * level to the next. An edge goes to the finest level whose cells are at
+ * least as large as its bounding box, in the cell holding the lowest corner
+ * of the box, so it lies within the two-by-two block of cells starting
+ * there. A query visits the cells around the point in rings, taking from
+ * all levels the ring that is nearest, until the nearest ring is further
+ * than the nearest edge found.
+ * <br>
+ * Queries answer exactly what RRTGenerator.connect computes scanning the
+ * edge list: squared distances are computed and compared by Geometry as
+ * there, and among edges at the same distance the one added last wins, as
+ * it comes last in the list.
+ * Pruning allows a small slack for the rounding of those computations.
+ */
+public class SegmentIndex {
+
+	// Relative slack on pruning bounds, against coordinates and distances
+	private static final double SLACK = 1e-9;
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Edges of one cell.
+	 */
+	private static class Bucket {
+		final Level level;
+		final int cx, cy;
+		int[] ids = new int[4];
+		int size;
+
+		Bucket(Level level, int cx, int cy) {
+			this.level = level;
+			this.cx = cx;
+			this.cy = cy;
+		}
+	}
+
+	/**
+	 * One grid.
+	 */
+	private static class Level {
+		final double cellSize;
+		final Map<Long, Bucket> cells = new HashMap<Long, Bucket>();
+		int edges;
+		// Range of the cells that ever held edges
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+
+		// Query state: the cell of the point and the next ring to visit,
+		// or whether every edge of the level was visited
+		int qx, qy, ring;
+		boolean done;
+
+		Level(double cellSize) {
+			this.cellSize = cellSize;
+		}
+
+		/**
+		 * Gets the lowest distance from the query point to an edge of the
+		 * next ring, or infinity if no edge is left to visit.
+		 */
+		double nextBound() {
+			if (done || edges == 0 || ring > qx - minX && ring > maxX - qx
+					&& ring > qy - minY && ring > maxY - qy)
+				return Double.POSITIVE_INFINITY;
+			return Math.max(0, ring - 2) * cellSize;
+		}
+	}
+
+	private final double baseCellSize;
+	private final List<Level> levels = new ArrayList<Level>();
+
+	// Ends of the edges by id, ids being given in the order edges are added
+	private double[] beginXs = new double[INITIAL_CAPACITY];
+	private double[] beginYs = new double[INITIAL_CAPACITY];
+	private double[] endXs = new double[INITIAL_CAPACITY];
+	private double[] endYs = new double[INITIAL_CAPACITY];
+	private Bucket[] buckets = new Bucket[INITIAL_CAPACITY];
+	private int[] slots = new int[INITIAL_CAPACITY];
+	private int nextId;
+	private int size;
+	// Largest absolute coordinate seen, scaling the pruning slack
+	private double magnitude = 1;
+
+	// Result of the last query
+	private int nearestId;
+	private double nearestX, nearestY;
+	// Squared distance to the nearest edge found
+	private double distance;
+	private int status;
+
+	/**
+	 * @param baseCellSize
+	 *            cell size of the finest grid, about the length of the
+	 *            edges expected once the tree is grown
+	 */
+	public SegmentIndex(double baseCellSize) {
+		this.baseCellSize = baseCellSize;
+	}
+
+	/**
+	 * Gets the number of edges in the index.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an edge.
+	 *
+	 * @return its id, greater than those of the edges added before
+	 */
+	public int add(double beginX, double beginY, double endX, double endY) {
+		double minX = Math.min(beginX, endX);
+		double minY = Math.min(beginY, endY);
+		double extent = Math.max(Math.abs(beginX - endX),
+				Math.abs(beginY - endY));
+		magnitude = Math.max(magnitude, Math.max(
+				Math.max(Math.abs(beginX), Math.abs(endX)),
+				Math.max(Math.abs(beginY), Math.abs(endY))));
+
+		int k = 0;
+		while (baseCellSize * (1L << k) < extent)
+			k++;
+		while (levels.size() <= k)
+			levels.add(new Level(baseCellSize * (1L << levels.size())));
+		Level level = levels.get(k);
+
+		int cx = cell(minX, level.cellSize);
+		int cy = cell(minY, level.cellSize);
+		Long key = key(cx, cy);
+		Bucket bucket = level.cells.get(key);
+		if (bucket == null) {
+			bucket = new Bucket(level, cx, cy);
+			level.cells.put(key, bucket);
+		}
+		level.edges++;
+		level.minX = Math.min(level.minX, cx);
+		level.maxX = Math.max(level.maxX, cx);
+		level.minY = Math.min(level.minY, cy);
+		level.maxY = Math.max(level.maxY, cy);
+
+		int id = nextId++;
+		if (id == beginXs.length) {
+			int capacity = beginXs.length * 2;
+			beginXs = Arrays.copyOf(beginXs, capacity);
+			beginYs = Arrays.copyOf(beginYs, capacity);
+			endXs = Arrays.copyOf(endXs, capacity);
+			endYs = Arrays.copyOf(endYs, capacity);
+			buckets = Arrays.copyOf(buckets, capacity);
+			slots = Arrays.copyOf(slots, capacity);
+		}
+		if (bucket.size == bucket.ids.length)
+			bucket.ids = Arrays.copyOf(bucket.ids, bucket.size * 2);
+		beginXs[id] = beginX;
+		beginYs[id] = beginY;
+		endXs[id] = endX;
+		endYs[id] = endY;
+		buckets[id] = bucket;
+		slots[id] = bucket.size;
+		bucket.ids[bucket.size++] = id;
+		size++;
+		return id;
+	}
+
+	/**
+	 * Removes an edge.
+	 */
+	public void remove(int id) {
+		Bucket bucket = buckets[id];
+		int slot = slots[id];
+		int last = bucket.ids[--bucket.size];
+		bucket.ids[slot] = last;
+		slots[last] = slot;
+
+		bucket.level.edges--;
+		if (bucket.size == 0)
+			bucket.level.cells.remove(key(bucket.cx, bucket.cy));
+		buckets[id] = null;
+		size--;
+	}
+
+	/**
+	 * Finds the edge nearest to (x, y).
+	 *
+	 * @return its id, or -1 if there is no edge
+	 */
+	public int findNearest(double x, double y) {
+		nearestId = -1;
+		distance = Double.POSITIVE_INFINITY;
+		double slack = SLACK * Math.max(magnitude,
+				Math.max(Math.abs(x), Math.abs(y)));
+
+		for (Level level : levels) {
+			level.qx = cell(x, level.cellSize);
+			level.qy = cell(y, level.cellSize);
+			level.ring = 0;
+			level.done = false;
+		}
+
+		while (true) {
+			Level nearestLevel = null;
+			double bound = Double.POSITIVE_INFINITY;
+			for (Level level : levels) {
+				double levelBound = level.nextBound();
+				if (levelBound < bound) {
+					bound = levelBound;
+					nearestLevel = level;
+				}
+			}
+			if (nearestLevel == null || bound > limit(slack))
+				break;
+			// Sparse levels are cheaper to scan than to visit ring by ring
+			int side = 2 * nearestLevel.ring + 1;
+			if (side * side > nearestLevel.edges) {
+				for (Bucket bucket : nearestLevel.cells.values())
+					for (int i = 0; i < bucket.size; i++)
+						visitEdge(x, y, bucket.ids[i]);
+				nearestLevel.done = true;
+			} else {
+				visitRing(x, y, nearestLevel, slack);
+				nearestLevel.ring++;
+			}
+		}
+		locate(x, y);
+		return nearestId;
+	}
+
+	/**
+	 * Gets the x coordinate of the nearest point of the edge found by the
+	 * last query.
+	 */
+	public double getNearestX() {
+		return nearestX;
+	}
+
+	/**
+	 * Gets the y coordinate of the nearest point of the edge found by the
+	 * last query.
+	 */
+	public double getNearestY() {
+		return nearestY;
+	}
+
+	/**
+	 * Gets where the nearest point of the edge found by the last query
+	 * lies: -1 at its beginning, 1 at its end, 0 in between.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	private void visitRing(double x, double y, Level level, double slack) {
+		int r = level.ring;
+		if (r == 0) {
+			visitCell(x, y, level, level.qx, level.qy, slack);
+			return;
+		}
+		// Only the part of the ring within the range of the cells holding edges
+		int fromX = Math.max(level.qx - r, level.minX);
+		int toX = Math.min(level.qx + r, level.maxX);
+		int fromY = Math.max(level.qy - r + 1, level.minY);
+		int toY = Math.min(level.qy + r - 1, level.maxY);
+		for (int cx = fromX; cx <= toX; cx++) {
+			visitCell(x, y, level, cx, level.qy - r, slack);
+			visitCell(x, y, level, cx, level.qy + r, slack);
+		}
+		for (int cy = fromY; cy <= toY; cy++) {
+			visitCell(x, y, level, level.qx - r, cy, slack);
+			visitCell(x, y, level, level.qx + r, cy, slack);
+		}
+	}
+
+	private void visitCell(double x, double y, Level level, int cx, int cy, double slack) {
+		if (cx < level.minX || cx > level.maxX || cy < level.minY
+				|| cy > level.maxY)
+			return;
+
+		// Edges of the cell lie in the block of two by two cells starting there
+		double lowX = cx * level.cellSize, lowY = cy * level.cellSize;
+		double highX = lowX + 2 * level.cellSize, highY = lowY + 2 * level.cellSize;
+		double dx = x < lowX ? lowX - x : x > highX ? x - highX : 0;
+		double dy = y < lowY ? lowY - y : y > highY ? y - highY : 0;
+		double limit = limit(slack);
+		if (dx * dx + dy * dy > limit * limit)
+			return;
+
+		Bucket bucket = level.cells.get(key(cx, cy));
+		if (bucket == null)
+			return;
+
+		for (int i = 0; i < bucket.size; i++)
+			visitEdge(x, y, bucket.ids[i]);
+	}
+
+	private void visitEdge(double x, double y, int id) {
+		double current = Geometry.segmentDistanceSquared(beginXs[id],
+				beginYs[id], endXs[id], endYs[id], x, y);
+		if (Geometry.sameRoot(current, distance) ? id > nearestId
+				: current < distance) {
+			nearestId = id;
+			distance = current;
+		}
+	}
+
+	/**
+	 * Locates the nearest point of the edge found, once the query is over.
+	 */
+	private void locate(double x, double y) {
+		if (nearestId < 0)
+			return;
+		double beginX = beginXs[nearestId], beginY = beginYs[nearestId];
+		double endX = endXs[nearestId], endY = endYs[nearestId];
+		status = Geometry.side(beginX, beginY, endX, endY, x, y);
+		if (status == Geometry.BEGIN) {
+			nearestX = beginX;
+			nearestY = beginY;
+		} else if (status == Geometry.END) {
+			nearestX = endX;
+			nearestY = endY;
+		} else {
+			nearestX = Geometry.projectionX(beginX, beginY, endX, endY, x, y);
+			nearestY = Geometry.projectionY(beginX, beginY, endX, endY, x, y);
+		}
+	}
+
+	/**
+	 * Gets the distance beyond which no edge can be nearer than the nearest
+	 * found, with slack.
+	 */
+	private double limit(double slack) {
+		return Math.sqrt(distance) * (1 + SLACK) + slack;
+	}
+
+	private static int cell(double coordinate, double cellSize) {
+		double c = Math.floor(coordinate / cellSize);
+		return (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, c));
+	}
+
+	/**
+	 * Gets the key of a cell. The coordinates are packed in a long and
+	 * mixed, as Long.hashCode alone would give all the cells of a diagonal
+	 * the same hash.
+	 */
+	private static Long key(int cx, int cy) {
+		long key = ((long) cx << 32) ^ (cy & 0xffffffffL);
+		key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+		key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return key ^ (key >>> 33);
+	}
+}
@@ -1,23 +1,132 @@
 package app;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import java.util.Arrays;
 
+/**
+ * Points, vertices and edges of the tree, in arrays of primitives.
+ * <br>
+ * Points are numbered in the order they are added: the points of the map
+ * first, then the points where edges were split. Vertices and edges refer
+ * to points by number, and edges are numbered by their slot, which a split
+ * reuses for one of its halves.
+ */
 public class Tree {
-	public List<Point> vertices;
-	public List<Edge> edges;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private double[] xs;
+	private double[] ys;
+	private int points;
+
+	private int[] vertices;
+	private int vertexCount;
+
+	private int[] begins;
+	private int[] ends;
+	private int edgeCount;
+
 	public Tree() {
-		this.vertices = new ArrayList<Point>();
-		this.edges = new ArrayList<Edge>();
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of points expected
+	 */
+	public Tree(int capacity) {
+		capacity = Math.max(capacity, INITIAL_CAPACITY);
+		xs = new double[capacity];
+		ys = new double[capacity];
+		vertices = new int[capacity];
+		begins = new int[capacity];
+		ends = new int[capacity];
+	}
+
+	/**
+	 * Adds a point.
+	 *
+	 * @return its number
+	 */
+	public int addPoint(double x, double y) {
+		if (points == xs.length) {
+			xs = Arrays.copyOf(xs, points * 2);
+			ys = Arrays.copyOf(ys, points * 2);
+		}
+		xs[points] = x;
+		ys[points] = y;
+		return points++;
+	}
+
+	public int getPointCount() {
+		return points;
+	}
+
+	public double getX(int point) {
+		return xs[point];
+	}
+
+	public double getY(int point) {
+		return ys[point];
+	}
+
+	/**
+	 * Makes a point a vertex of the tree.
+	 */
+	public void addVertex(int point) {
+		if (vertexCount == vertices.length)
+			vertices = Arrays.copyOf(vertices, vertexCount * 2);
+		vertices[vertexCount++] = point;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Gets the point of the i-th vertex.
+	 */
+	public int getVertex(int i) {
+		return vertices[i];
+	}
+
+	/**
+	 * Adds an edge between two points.
+	 *
+	 * @return its slot
+	 */
+	public int addEdge(int begin, int end) {
+		if (edgeCount == begins.length) {
+			begins = Arrays.copyOf(begins, edgeCount * 2);
+			ends = Arrays.copyOf(ends, edgeCount * 2);
+		}
+		begins[edgeCount] = begin;
+		ends[edgeCount] = end;
+		return edgeCount++;
+	}
+
+	/**
+	 * Replaces the edge in a slot.
+	 */
+	public void setEdge(int slot, int begin, int end) {
+		begins[slot] = begin;
+		ends[slot] = end;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getBegin(int slot) {
+		return begins[slot];
+	}
+
+	public int getEnd(int slot) {
+		return ends[slot];
 	}
-	
 
 	public void printTree() {
-		for(Edge edge : edges) {
-			System.out.println(edge.getBegin().toString()+"-->"+edge.getEnd().toString());
+		for (int i = 0; i < edgeCount; i++) {
+			System.out.println("(" + xs[begins[i]] + "," + ys[begins[i]] + ")-->("
+					+ xs[ends[i]] + "," + ys[ends[i]] + ")");
 		}
 	}
-	
-	
 }
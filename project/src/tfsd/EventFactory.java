@@ -0,0 +1,79 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.events.SendableEvent;
+
+/**
+ * Rebuilds the events received from the network from the name of their
+ * class, as the transports and the layers unpacking frames send it.
+ * <br>
+ * The constructors are looked up once per class and shared by every
+ * session, including those reading in their own threads.
+ * 
+ */
+public final class EventFactory {
+
+	private static final Map<String, Constructor<? extends SendableEvent>> constructors =
+			new ConcurrentHashMap<String, Constructor<? extends SendableEvent>>();
+
+	private EventFactory() {
+	}
+
+	/**
+	 * Creates an empty event of a class.
+	 * 
+	 * @param className
+	 *            the name of a SendableEvent class with a public
+	 *            constructor without arguments
+	 * @return the event, or null if it could not be created
+	 */
+	public static SendableEvent newEvent(String className) {
+		try {
+			Constructor<? extends SendableEvent> constructor = constructors
+					.get(className);
+			if (constructor == null) {
+				constructor = Class.forName(className)
+						.asSubclass(SendableEvent.class)
+						.getDeclaredConstructor();
+				constructors.put(className, constructor);
+			}
+			return constructor.newInstance();
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		} catch (ClassCastException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+}
@@ -46,6 +46,7 @@ import net.sf.appia.core.Session;
 public class ProcessInitEvent extends Event {
 
   private ProcessSet processSet;
+  private DecisionListener decisionListener;
 
   /**
    * Default constructor.
@@ -82,12 +83,12 @@ public class ProcessInitEvent extends Event {
   }
 
   /**
-   * Gets a copy of the process set.
+   * Gets the process set, shared by every session of the channel.
    * 
-   * @return a copy of the process set.
+   * @return the process set.
    */
   public ProcessSet getProcessSet() {
-    return processSet.cloneProcessSet();
+    return processSet;
   }
 
   /**
@@ -100,4 +101,23 @@ public class ProcessInitEvent extends Event {
     processSet = set;
   }
 
+  /**
+   * Gets the application that receives the decisions of consensus.
+   * 
+   * @return the listener, null if there is none.
+   */
+  public DecisionListener getDecisionListener() {
+    return decisionListener;
+  }
+
+  /**
+   * Sets the application that receives the decisions of consensus.
+   * 
+   * @param listener
+   *          the listener.
+   */
+  public void setDecisionListener(DecisionListener listener) {
+    decisionListener = listener;
+  }
+
 }
@@ -33,12 +33,15 @@
 package tfsd;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import javax.swing.SwingUtilities;
@@ -52,11 +55,18 @@ import net.sf.appia.core.ChannelCursor;
 import net.sf.appia.core.Layer;
 import net.sf.appia.core.QoS;
 import net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer;
+import tfsd.batch.BatchLayer;
 import tfsd.beb.BasicBroadcastLayer;
+import tfsd.beb.MulticastBroadcastLayer;
+import tfsd.beb.TreeBroadcastLayer;
 import tfsd.consensus.ConsensusLayer;
 import tfsd.lrb.LazyRBLayer;
 import tfsd.lrb.ProcessSet;
+import tfsd.nio.NioTransportLayer;
+import tfsd.paxos.PaxosLayer;
+import tfsd.pfd.PhiAccrualFDLayer;
 import tfsd.pfd.TcpBasedPFDLayer;
+import tfsd.shm.ShmTransportLayer;
 import app.Drawer;
 import app.RRTGenerator;
 
@@ -175,9 +185,107 @@ public class SampleAppl {
 
 	public static int TOLERATED_FAILURES = 1;
 
+	/**
+	 * Number of selector threads of the non-blocking transport (-transport
+	 * nio), and whether its sockets disable Nagle's algorithm.
+	 */
+	public static int NIO_SELECTORS = 2;
+	public static boolean NIO_NODELAY = true;
+
+	/**
+	 * Directory of the files shared by the processes of one host when they
+	 * talk through memory (-shm), and the bytes of each ring in them, a
+	 * power of two.
+	 */
+	public static String SHM_DIR = System.getProperty("java.io.tmpdir")
+			+ File.separator + "tfsd-shm";
+	public static int SHM_RING_BYTES = 1 << 20;
+
+	/**
+	 * Period, in milliseconds, of the heartbeats of the phi accrual failure
+	 * detector (-fd phi), and the suspicion level that makes it report a
+	 * crash.
+	 */
+	public static long FD_HEARTBEAT_PERIOD = 100;
+	public static double FD_PHI_THRESHOLD = 8;
+
+	/**
+	 * Leaves a heartbeat out when other messages went to every process in
+	 * its period. Turned off for -beb tree, where they do not go directly.
+	 */
+	public static boolean FD_PIGGYBACK = true;
+
+	/**
+	 * Period, in milliseconds, of the delivered watermark gossip used by
+	 * the reliable broadcast to drop stable messages.
+	 */
+	public static long RB_STABILITY_PERIOD = 1000;
+
+	/**
+	 * IP multicast group, and its port, used by the best-effort broadcast
+	 * when it runs over UDP (-beb multicast).
+	 */
+	public static String BEB_MULTICAST_GROUP = "239.255.42.1";
+	public static int BEB_MULTICAST_PORT = 25000;
+
+	/**
+	 * Period, in milliseconds, at which the best-effort broadcast over UDP
+	 * acknowledges datagrams and repairs those lost.
+	 */
+	public static long BEB_REPAIR_PERIOD = 100;
+
+	/**
+	 * Number of processes each one forwards a broadcast to when it is
+	 * disseminated over spanning trees (-beb tree).
+	 */
+	public static int BEB_TREE_FANOUT = 4;
+
+	/**
+	 * How long, in microseconds, an outgoing event may wait for others to
+	 * the same destination (0 disables batching), and the frame size that
+	 * sends them right away.
+	 */
+	public static long BATCH_FLUSH_MICROS = 0;
+	public static int BATCH_FRAME_BYTES = 8192;
+
+	/**
+	 * Number of consensus instances that may be running at the same time.
+	 */
+	public static int CONSENSUS_WINDOW = 1;
+
+	/**
+	 * How many instances ahead of the last started one consensus keeps
+	 * proposals and decisions for.
+	 */
+	public static int CONSENSUS_LOOKAHEAD = 1024;
+
+	/**
+	 * Maximum number of proposals decided together in one consensus
+	 * instance, and how long (in milliseconds) a batch may wait to fill up.
+	 */
+	public static int CONSENSUS_BATCH_SIZE = 1;
+	public static long CONSENSUS_BATCH_DELAY = 10;
+
+	/**
+	 * Coin tossed by the randomized consensus: "shared" (same choice on
+	 * every process) or "local".
+	 */
+	public static String CONSENSUS_COIN = "shared";
+
+	/**
+	 * Lets the randomized consensus decide in one step when the first
+	 * proposals agree. Only used when n > 3f.
+	 */
+	public static boolean CONSENSUS_FAST_PATH = true;
+
 	public static void main(String[] args) {
 		
 		int arg = 0, self = -1;
+		String consensus = "rc";
+		String beb = "tcp";
+		String fd = "tcp";
+		String transport = "tcp";
+		boolean shm = false;
 		try {
 			while (arg < args.length) {
 				if (args[arg].equals("-n")) {
@@ -198,6 +306,219 @@ public class SampleAppl {
 					} catch (NumberFormatException e) {
 						invalidArgs(e.getMessage());
 					}
+				} else if (args[arg].equals("-consensus")) {
+					arg++;
+					consensus = args[arg];
+					if (!consensus.equals("rc") && !consensus.equals("paxos")) {
+						invalidArgs("Unknown consensus protocol: " + consensus);
+					}
+					System.err.println("Consensus protocol: " + consensus);
+				} else if (args[arg].equals("-transport")) {
+					arg++;
+					transport = args[arg];
+					if (!transport.equals("tcp") && !transport.equals("nio")) {
+						invalidArgs("Unknown transport: " + transport);
+					}
+					System.err.println("Transport: " + transport);
+				} else if (args[arg].equals("-selectors")) {
+					arg++;
+					try {
+						SampleAppl.NIO_SELECTORS = Integer.parseInt(args[arg]);
+						if (SampleAppl.NIO_SELECTORS < 1) {
+							invalidArgs("There must be at least 1 selector thread");
+						}
+						System.err.println("Selector threads: "
+								+ SampleAppl.NIO_SELECTORS);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-nodelay")) {
+					arg++;
+					if (!args[arg].equals("on") && !args[arg].equals("off")) {
+						invalidArgs("Unknown TCP_NODELAY setting: " + args[arg]);
+					}
+					SampleAppl.NIO_NODELAY = args[arg].equals("on");
+					System.err.println("TCP_NODELAY: " + args[arg]);
+				} else if (args[arg].equals("-shm")) {
+					shm = true;
+					System.err.println("Shared memory with processes on this host");
+				} else if (args[arg].equals("-shmdir")) {
+					arg++;
+					SampleAppl.SHM_DIR = args[arg];
+					System.err.println("Shared memory directory: "
+							+ SampleAppl.SHM_DIR);
+				} else if (args[arg].equals("-beb")) {
+					arg++;
+					beb = args[arg];
+					if (!beb.equals("tcp") && !beb.equals("multicast")
+							&& !beb.equals("tree")) {
+						invalidArgs("Unknown broadcast transport: " + beb);
+					}
+					System.err.println("Best-effort broadcast over: " + beb);
+				} else if (args[arg].equals("-group")) {
+					arg++;
+					int colon = args[arg].lastIndexOf(':');
+					try {
+						if (colon < 0) {
+							SampleAppl.BEB_MULTICAST_GROUP = args[arg];
+						} else {
+							SampleAppl.BEB_MULTICAST_GROUP = args[arg].substring(0, colon);
+							SampleAppl.BEB_MULTICAST_PORT = Integer
+									.parseInt(args[arg].substring(colon + 1));
+						}
+						System.err.println("Multicast group: "
+								+ SampleAppl.BEB_MULTICAST_GROUP + ":"
+								+ SampleAppl.BEB_MULTICAST_PORT);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-repair")) {
+					arg++;
+					try {
+						SampleAppl.BEB_REPAIR_PERIOD = Long
+								.parseLong(args[arg]);
+						if (SampleAppl.BEB_REPAIR_PERIOD < 1) {
+							invalidArgs("The repair period must be at least 1 ms");
+						}
+						System.err.println("Multicast repair period: "
+								+ SampleAppl.BEB_REPAIR_PERIOD + " ms");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-fanout")) {
+					arg++;
+					try {
+						SampleAppl.BEB_TREE_FANOUT = Integer
+								.parseInt(args[arg]);
+						if (SampleAppl.BEB_TREE_FANOUT < 1) {
+							invalidArgs("The fan-out must be at least 1");
+						}
+						System.err.println("Broadcast tree fan-out: "
+								+ SampleAppl.BEB_TREE_FANOUT);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-fd")) {
+					arg++;
+					fd = args[arg];
+					if (!fd.equals("tcp") && !fd.equals("phi")) {
+						invalidArgs("Unknown failure detector: " + fd);
+					}
+					System.err.println("Failure detector: " + fd);
+				} else if (args[arg].equals("-heartbeat")) {
+					arg++;
+					try {
+						SampleAppl.FD_HEARTBEAT_PERIOD = Long
+								.parseLong(args[arg]);
+						if (SampleAppl.FD_HEARTBEAT_PERIOD < 1) {
+							invalidArgs("The heartbeat period must be at least 1 ms");
+						}
+						System.err.println("Heartbeat period: "
+								+ SampleAppl.FD_HEARTBEAT_PERIOD + " ms");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-phi")) {
+					arg++;
+					try {
+						SampleAppl.FD_PHI_THRESHOLD = Double
+								.parseDouble(args[arg]);
+						System.err.println("Phi threshold: "
+								+ SampleAppl.FD_PHI_THRESHOLD);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-stability")) {
+					arg++;
+					try {
+						SampleAppl.RB_STABILITY_PERIOD = Long
+								.parseLong(args[arg]);
+						if (SampleAppl.RB_STABILITY_PERIOD < 1) {
+							invalidArgs("The stability period must be at least 1 ms");
+						}
+						System.err.println("Reliable broadcast stability period: "
+								+ SampleAppl.RB_STABILITY_PERIOD + " ms");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-flush")) {
+					arg++;
+					try {
+						SampleAppl.BATCH_FLUSH_MICROS = Long
+								.parseLong(args[arg]);
+						System.err.println("Batch flush window: "
+								+ SampleAppl.BATCH_FLUSH_MICROS + " us");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-framebytes")) {
+					arg++;
+					try {
+						SampleAppl.BATCH_FRAME_BYTES = Integer
+								.parseInt(args[arg]);
+						System.err.println("Batch frame size: "
+								+ SampleAppl.BATCH_FRAME_BYTES + " bytes");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-window")) {
+					arg++;
+					try {
+						SampleAppl.CONSENSUS_WINDOW = Integer
+								.parseInt(args[arg]);
+						if (SampleAppl.CONSENSUS_WINDOW < 1) {
+							invalidArgs("The consensus window must be at least 1");
+						}
+						System.err.println("Consensus window: "
+								+ SampleAppl.CONSENSUS_WINDOW);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-batch")) {
+					arg++;
+					try {
+						SampleAppl.CONSENSUS_BATCH_SIZE = Integer
+								.parseInt(args[arg]);
+						if (SampleAppl.CONSENSUS_BATCH_SIZE < 1) {
+							invalidArgs("The batch size must be at least 1");
+						}
+						System.err.println("Consensus batch size: "
+								+ SampleAppl.CONSENSUS_BATCH_SIZE);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-batchdelay")) {
+					arg++;
+					try {
+						SampleAppl.CONSENSUS_BATCH_DELAY = Long
+								.parseLong(args[arg]);
+						System.err.println("Consensus batch delay: "
+								+ SampleAppl.CONSENSUS_BATCH_DELAY + " ms");
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
+				} else if (args[arg].equals("-coin")) {
+					arg++;
+					SampleAppl.CONSENSUS_COIN = args[arg];
+					if (!CONSENSUS_COIN.equals("shared")
+							&& !CONSENSUS_COIN.equals("local")) {
+						invalidArgs("Unknown coin: " + CONSENSUS_COIN);
+					}
+					System.err.println("Consensus coin: "
+							+ SampleAppl.CONSENSUS_COIN);
+				} else if (args[arg].equals("-nofast")) {
+					SampleAppl.CONSENSUS_FAST_PATH = false;
+					System.err.println("Consensus fast path disabled");
+				} else if (args[arg].equals("-lookahead")) {
+					arg++;
+					try {
+						SampleAppl.CONSENSUS_LOOKAHEAD = Integer
+								.parseInt(args[arg]);
+						System.err.println("Consensus lookahead: "
+								+ SampleAppl.CONSENSUS_LOOKAHEAD);
+					} catch (NumberFormatException e) {
+						invalidArgs(e.getMessage());
+					}
 				} else {
 					invalidArgs("Unknown argument: " + args[arg]);
 				}
@@ -207,6 +528,10 @@ public class SampleAppl {
 			e.printStackTrace();
 			invalidArgs(e.getMessage());
 		}
+
+		if (CONSENSUS_LOOKAHEAD < CONSENSUS_WINDOW) {
+			invalidArgs("The consensus lookahead must not be smaller than the window");
+		}
 		
 		/*
 		 * gets a new uninitialized Channel with the specified QoS and the Appl
@@ -216,14 +541,46 @@ public class SampleAppl {
 
 		// RbChannel
 		
-		Layer[] rbQos = { 
-				new TcpCompleteLayer(), 
-				new BasicBroadcastLayer(),
-				new TcpBasedPFDLayer(), 
-				new LazyRBLayer(),
-				new ConsensusLayer(), 
-				new SampleApplLayer()
-		};
+		Layer transportLayer;
+		if (transport.equals("nio")) {
+			transportLayer = new NioTransportLayer();
+		} else {
+			transportLayer = new TcpCompleteLayer();
+		}
+
+		Layer bebLayer;
+		if (beb.equals("multicast")) {
+			bebLayer = new MulticastBroadcastLayer();
+		} else if (beb.equals("tree")) {
+			bebLayer = new TreeBroadcastLayer();
+			FD_PIGGYBACK = false;
+		} else {
+			bebLayer = new BasicBroadcastLayer();
+		}
+
+		Layer fdLayer;
+		if (fd.equals("phi")) {
+			fdLayer = new PhiAccrualFDLayer();
+		} else {
+			fdLayer = new TcpBasedPFDLayer();
+		}
+
+		List<Layer> layers = new ArrayList<Layer>();
+		layers.add(transportLayer);
+		if (shm) {
+			layers.add(new ShmTransportLayer());
+		}
+		layers.add(new BatchLayer(BATCH_FLUSH_MICROS, BATCH_FRAME_BYTES));
+		layers.add(bebLayer);
+		layers.add(fdLayer);
+		if (consensus.equals("paxos")) {
+			layers.add(new PaxosLayer());
+		} else {
+			layers.add(new LazyRBLayer());
+			layers.add(new ConsensusLayer());
+		}
+		layers.add(new SampleApplLayer());
+		Layer[] rbQos = layers.toArray(new Layer[layers.size()]);
 
 		Channel rbChannel = getChannel(buildProcessSet("conf/process_rb.conf", self), rbQos, "rbChannel");
 
@@ -254,7 +611,42 @@ public class SampleAppl {
 			+ reason
 			+ "\nUsage SampleAppl -f filemane -n proc_number -qos QoS_type."
 			+ "\n QoS can be one of the following:"
-			+ "\n\t beb - Best Effort Broadcast");
+			+ "\n\t beb - Best Effort Broadcast"
+			+ "\n -consensus rc|paxos - randomized consensus (default) or"
+			+ " leader-based Multi-Paxos"
+			+ "\n -transport tcp|nio - blocking TCP transport (default) or"
+			+ " one on non-blocking sockets"
+			+ "\n -selectors k - selector threads of the nio transport"
+			+ "\n -nodelay on|off - TCP_NODELAY on the nio transport"
+			+ " sockets (default on)"
+			+ "\n -shm - talk to processes on this host through memory"
+			+ "\n -shmdir dir - directory of the shared files (default "
+			+ SHM_DIR + ")"
+			+ "\n -beb tcp|multicast|tree - best-effort broadcast over TCP"
+			+ " (default), over an IP multicast group or down spanning"
+			+ " trees"
+			+ "\n -group address[:port] - multicast group (default "
+			+ BEB_MULTICAST_GROUP + ":" + BEB_MULTICAST_PORT + ")"
+			+ "\n -repair ms - period of the multicast acknowledgements"
+			+ "\n -fd tcp|phi - failure detector on TCP errors (default) or"
+			+ " on heartbeats"
+			+ "\n -heartbeat ms - period of the heartbeats"
+			+ "\n -phi level - suspicion level that reports a crash"
+			+ "\n -fanout k - children of each process in the trees"
+			+ "\n -stability ms - period of the reliable broadcast"
+			+ " stability gossip"
+			+ "\n -flush us - how long outgoing messages wait to be sent"
+			+ " in one frame (0, the default, sends them right away)"
+			+ "\n -framebytes n - frame size that is sent without waiting"
+			+ "\n -window k - number of concurrent consensus instances"
+			+ "\n -lookahead k - instances ahead for which consensus"
+			+ " messages are kept"
+			+ "\n -batch k - maximum number of proposals decided together"
+			+ "\n -batchdelay ms - how long a batch waits to fill up"
+			+ "\n -coin shared|local - coin tossed by the randomized"
+			+ " consensus"
+			+ "\n -nofast - no one-step decision when the first proposals"
+			+ " agree");
 		System.exit(1);
 	}
 }
@@ -74,12 +74,23 @@ public class SampleApplReader extends Thread {
 				SampleSendableEvent asyn = new SampleSendableEvent();
 				Message message = asyn.getMessage();
 				asyn.setCommand(st.nextToken());
-				String msg = "";
 
-				while (st.hasMoreTokens())
-					msg += (st.nextToken() + " ");
+				if ("propose".equals(asyn.getCommand())) {
+					// Consensus takes the proposed value as an int
+					try {
+						message.pushInt(Integer.parseInt(st.nextToken()));
+					} catch (RuntimeException e) {
+						System.err.println("Usage: propose <integer>");
+						continue;
+					}
+				} else {
+					String msg = "";
 
-				message.pushString(msg);
+					while (st.hasMoreTokens())
+						msg += (st.nextToken() + " ");
+
+					message.pushString(msg);
+				}
 				asyn.asyncGo(SampleApplSession.rbChannel, Direction.DOWN);
 
 			} catch (java.io.IOException e) {
@@ -53,7 +53,7 @@ import app.RRTHandler;
  * 
  * @author nuno
  */
-public class SampleApplSession extends Session {
+public class SampleApplSession extends Session implements DecisionListener {
 
 //	public static Channel bebChannel;
 	public static Channel rbChannel;
@@ -61,12 +61,8 @@ public class SampleApplSession extends Session {
 	private ProcessSet processes;
 	private RRTHandler rrtHandler;
 
-	public static SampleApplSession instance;
-	
 	public SampleApplSession(Layer layer) {
 		super(layer);
-		
-		instance = this;
 	}
 
 	public void init(ProcessSet processes) {
@@ -122,6 +118,7 @@ public class SampleApplSession extends Session {
 			ProcessInitEvent processInit = new ProcessInitEvent(channel,
 					Direction.DOWN, this);
 			processInit.setProcessSet(processes);
+			processInit.setDecisionListener(this);
 			processInit.go();
 		} catch (AppiaEventException e1) {
 			e1.printStackTrace();
@@ -45,13 +45,12 @@ public class SampleProcess implements Serializable {
 
   private SocketAddress address;
   private int processNumber;
-  private boolean self, correct, initialized;
+  private boolean self, initialized;
 
   public SampleProcess(SocketAddress addr, int proc, boolean self) {
     this.address = addr;
     this.processNumber = proc;
     this.self = self;
-    correct = true;
     initialized = false;
   }
 
@@ -93,25 +92,6 @@ public class SampleProcess implements Serializable {
         && (processNumber == proc.processNumber) && (self == proc.self);
   }
 
-  /**
-   * Is the process correct. Gets the correctness value.
-   * 
-   * @return true if correct, false otherwise
-   */
-  public boolean isCorrect() {
-    return correct;
-  }
-
-  /**
-   * Sets the correctness of the process.
-   * 
-   * @param b
-   *          the correct value
-   */
-  public void setCorrect(boolean b) {
-    correct = b;
-  }
-
   /**
    * Is the process initialized. Gets the initialized value.
    * 
@@ -131,16 +111,4 @@ public class SampleProcess implements Serializable {
     this.initialized = initialized;
   }
 
-  /**
-   * Creates a clone of the process.
-   * 
-   * @return the process clone
-   */
-  public SampleProcess cloneProcess() {
-    SampleProcess p = new SampleProcess(address, processNumber, self);
-    p.correct = correct;
-    p.initialized = initialized;
-    return p;
-  }
-
 }
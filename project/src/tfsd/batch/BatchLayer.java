@@ -0,0 +1,86 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.batch;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+
+/**
+ * Layer that coalesces the events sent to each destination into frames.
+ * 
+ */
+public class BatchLayer extends Layer {
+
+	private final long flushMicros;
+	private final int frameBytes;
+
+	/**
+	 * @param flushMicros
+	 *            how long, in microseconds, an outgoing event may wait for
+	 *            others to the same destination (0 disables batching)
+	 * @param frameBytes
+	 *            the frame size that sends the waiting events right away
+	 */
+	public BatchLayer(long flushMicros, int frameBytes) {
+		this.flushMicros = flushMicros;
+		this.frameBytes = frameBytes;
+
+		/* events that the protocol will create */
+		evProvide = new Class[2];
+		evProvide[0] = FrameEvent.class;
+		evProvide[1] = FlushTimer.class;
+
+		/*
+		 * events that the protocol require to work. This is a subset of the
+		 * accepted events
+		 */
+		evRequire = new Class[1];
+		evRequire[0] = ChannelInit.class;
+
+		/* events that the protocol will accept */
+		evAccept = new Class[4];
+		evAccept[0] = SendableEvent.class;
+		evAccept[1] = FrameEvent.class;
+		evAccept[2] = FlushTimer.class;
+		evAccept[3] = ChannelInit.class;
+
+	}
+
+	/**
+	 * Creates a new session to this protocol.
+	 * 
+	 * @see appia.Layer#createSession()
+	 */
+	public Session createSession() {
+		return new BatchSession(this, flushMicros, frameBytes);
+	}
+
+}
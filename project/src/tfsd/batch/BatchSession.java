@@ -0,0 +1,268 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.MsgBuffer;
+import tfsd.EventFactory;
+
+/**
+ * Session that coalesces the events sent to each destination into frames.
+ * <br>
+ * An outgoing event waits for other events to the same destination until
+ * the frame holds frameBytes bytes or the first event waited
+ * flushMicros microseconds, rounded up to the millisecond resolution of
+ * Appia timers. Both thresholds are given to the layer when the channel is
+ * built, so each channel has its own. A frame of a single event is sent
+ * as the event itself. Incoming frames are unpacked into the original
+ * events, in order. A flush window of 0 sends every event right away.
+ * 
+ */
+public class BatchSession extends Session {
+
+	private Channel channel;
+
+	private final long flushMicros;
+	private final int frameBytes;
+
+	// Events waiting for a frame, by destination
+	private Map<Object, Frame> frames;
+
+	private long framesSent;
+	private long eventsSent;
+
+	/**
+	 * Events waiting to be sent to one destination.
+	 */
+	private static class Frame {
+
+		final List<SendableEvent> events = new ArrayList<SendableEvent>();
+		int bytes;
+		int frameNumber;
+	}
+
+	/**
+	 * Builds a new BatchSession.
+	 * 
+	 * @param layer
+	 * @param flushMicros
+	 *            how long an outgoing event may wait for others, in
+	 *            microseconds
+	 * @param frameBytes
+	 *            the frame size that is sent without waiting
+	 */
+	public BatchSession(Layer layer, long flushMicros, int frameBytes) {
+		super(layer);
+
+		this.flushMicros = flushMicros;
+		this.frameBytes = frameBytes;
+
+		frames = new HashMap<Object, Frame>();
+
+		framesSent = 0;
+		eventsSent = 0;
+	}
+
+	/**
+	 * Gets the number of frames sent, single events included.
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * Gets the number of events sent.
+	 */
+	public long getEventsSent() {
+		return eventsSent;
+	}
+
+	/**
+	 * Handles incoming events.
+	 * 
+	 * @see appia.Session#handle(appia.Event)
+	 */
+	public void handle(Event event) {
+
+		try {
+			if (event instanceof FlushTimer) {
+				handleFlushTimer((FlushTimer) event);
+			} else if (event instanceof FrameEvent) {
+				if (event.getDir() == Direction.UP)
+					unpack((FrameEvent) event);
+				else
+					event.go();
+			} else if (event instanceof SendableEvent) {
+				if (event.getDir() == Direction.DOWN)
+					handleOutgoing((SendableEvent) event);
+				else
+					event.go();
+			} else if (event instanceof ChannelInit) {
+				channel = ((ChannelInit) event).getChannel();
+				event.go();
+			} else {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void handleOutgoing(SendableEvent event)
+			throws AppiaEventException {
+
+		if (flushMicros <= 0 || event.dest == null) {
+			framesSent++;
+			eventsSent++;
+			event.go();
+			return;
+		}
+
+		Frame frame = frames.get(event.dest);
+		if (frame == null) {
+			frame = new Frame();
+			frames.put(event.dest, frame);
+		}
+
+		frame.events.add(event);
+		frame.bytes += event.getMessage().length();
+
+		if (frame.bytes >= frameBytes) {
+			flush(event.dest, frame);
+		} else if (frame.events.size() == 1) {
+			// First event of the frame, bound how long it may wait
+			try {
+				FlushTimer timer = new FlushTimer(
+						Math.max(1, (flushMicros + 999) / 1000), channel, this,
+						EventQualifier.ON);
+				timer.setDest(event.dest);
+				timer.setFrameNumber(frame.frameNumber);
+				timer.go();
+			} catch (AppiaException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handleFlushTimer(FlushTimer timer) throws AppiaEventException {
+
+		// The frame may have been sent by size already
+		Frame frame = frames.get(timer.getDest());
+		if (frame != null && frame.frameNumber == timer.getFrameNumber()
+				&& !frame.events.isEmpty()) {
+			flush(timer.getDest(), frame);
+		}
+	}
+
+	private void flush(Object dest, Frame frame) throws AppiaEventException {
+
+		List<SendableEvent> events = frame.events;
+		framesSent++;
+		eventsSent += events.size();
+
+		if (events.size() == 1) {
+			events.get(0).go();
+		} else {
+			FrameEvent frameEvent = new FrameEvent();
+			Message msg = frameEvent.getMessage();
+
+			// Pushed backwards so that they are popped in order
+			for (int i = events.size() - 1; i >= 0; i--) {
+				SendableEvent event = events.get(i);
+				byte[] bytes = event.getMessage().toByteArray();
+
+				MsgBuffer mbuf = new MsgBuffer();
+				mbuf.len = bytes.length;
+				msg.push(mbuf);
+				System.arraycopy(bytes, 0, mbuf.data, mbuf.off, bytes.length);
+				msg.pushInt(bytes.length);
+				msg.pushString(event.getClass().getName());
+			}
+			msg.pushInt(events.size());
+
+			frameEvent.source = events.get(0).source;
+			frameEvent.dest = dest;
+			frameEvent.setChannel(channel);
+			frameEvent.setDir(Direction.DOWN);
+			frameEvent.setSourceSession(this);
+			frameEvent.init();
+			frameEvent.go();
+		}
+
+		events.clear();
+		frame.bytes = 0;
+		frame.frameNumber++;
+	}
+
+	private void unpack(FrameEvent frame) throws AppiaEventException {
+
+		Message msg = frame.getMessage();
+		int count = msg.popInt();
+
+		for (int i = 0; i < count; i++) {
+			String className = msg.popString();
+			int length = msg.popInt();
+
+			// The event gets its own copy, its message may grow later on
+			MsgBuffer mbuf = new MsgBuffer();
+			mbuf.len = length;
+			msg.pop(mbuf);
+			byte[] bytes = new byte[length];
+			System.arraycopy(mbuf.data, mbuf.off, bytes, 0, length);
+
+			SendableEvent event = EventFactory.newEvent(className);
+			if (event == null)
+				continue;
+
+			event.setMessage(new Message(bytes, 0, length));
+			event.source = frame.source;
+			event.dest = frame.dest;
+			event.setChannel(frame.getChannel());
+			event.setDir(Direction.UP);
+			event.setSourceSession(this);
+			event.init();
+			event.go();
+		}
+	}
+}
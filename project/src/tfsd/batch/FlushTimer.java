@@ -0,0 +1,72 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.batch;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.channel.Timer;
+
+/**
+ * Timer bounding how long the events for a destination wait for a frame.
+ * 
+ */
+public class FlushTimer extends Timer {
+
+	private Object dest;
+	private int frameNumber;
+
+	public FlushTimer() {
+		super();
+	}
+
+	public FlushTimer(long when, Channel channel, Session source,
+			int qualifier) throws AppiaEventException, AppiaException {
+		super(when, "batch_flush_timer", channel, Direction.DOWN, source,
+				qualifier);
+	}
+
+	public Object getDest() {
+		return dest;
+	}
+
+	public void setDest(Object dest) {
+		this.dest = dest;
+	}
+
+	public int getFrameNumber() {
+		return frameNumber;
+	}
+
+	public void setFrameNumber(int frameNumber) {
+		this.frameNumber = frameNumber;
+	}
+}
@@ -40,12 +40,18 @@ import net.sf.appia.core.Direction;
 import net.sf.appia.core.Event;
 import net.sf.appia.core.Layer;
 import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
 import net.sf.appia.core.events.SendableEvent;
 import net.sf.appia.core.events.channel.ChannelInit;
 
 
 /**
  * Session implementing the Basic Broadcast protocol.
+ * <br>
+ * A broadcast is sent as a single event addressed to all the other
+ * processes, which the transport serializes once and writes to each of
+ * them; the event itself is delivered to the local process without being
+ * serialized.
  * 
  * @author nuno
  * 
@@ -57,6 +63,11 @@ public class BasicBroadcastSession extends Session {
      */
     private ProcessSet processes;
 
+    /*
+     * Destination of the copy sent to the other processes
+     */
+    private AppiaMulticast others;
+
     /**
      * Builds a new BEBSession.
      * 
@@ -95,6 +106,15 @@ public class BasicBroadcastSession extends Session {
      */
     private void handleProcessInitEvent(ProcessInitEvent event) {
         processes = event.getProcessSet();
+
+        SampleProcess[] processArray = processes.getAllProcesses();
+        Object[] addresses = new Object[processArray.length - 1];
+        int a = 0;
+        for (int i = 0; i < processArray.length; i++)
+            if (i != processes.getSelfRank())
+                addresses[a++] = processArray[i].getSocketAddress();
+        others = new AppiaMulticast(null, addresses);
+
         try {
             event.go();
         } catch (AppiaEventException e) {
@@ -124,42 +144,34 @@ public class BasicBroadcastSession extends Session {
     private void bebBroadcast(SendableEvent event) {
         //    Debug.print("BEB: broadcasting message.");
 
-        // get an array of processes
-        SampleProcess[] processArray = this.processes.getAllProcesses();
-        SendableEvent sendingEvent = null;
-
-        // for each process...
-        for (int i = 0; i < processArray.length; i++) {
-            try {
-                // if it is the last process, don't clone the event
-                if (i == (processArray.length - 1))
-                    sendingEvent = event;
-                else
-                    sendingEvent = (SendableEvent) event.cloneEvent();
+        Object self = processes.getSelfProcess().getSocketAddress();
 
-                // set source and destination of event message
-                sendingEvent.source = processes.getSelfProcess().getSocketAddress();
-                sendingEvent.dest = processArray[i].getSocketAddress();
+        try {
+            // one copy for all the other processes
+            if (others.getDestinations().length > 0) {
+                SendableEvent sendingEvent = (SendableEvent) event.cloneEvent();
+                sendingEvent.source = self;
+                sendingEvent.dest = others;
 
                 // sets the session that created the event.
                 // this is important when this session is sending a cloned event
                 sendingEvent.setSourceSession(this);
 
-
-                // if it is the "self" process, send the event upwards
-                if (i == processes.getSelfRank())
-                    sendingEvent.setDir(Direction.UP);
-
-                // initializes and sends the message event
                 sendingEvent.init();
                 sendingEvent.go();
-            } catch (CloneNotSupportedException e) {
-                e.printStackTrace();
-                return;
-            } catch (AppiaEventException e) {
-                e.printStackTrace();
-                return;
             }
+
+            // the event itself goes upwards, to the "self" process
+            event.source = self;
+            event.dest = self;
+            event.setSourceSession(this);
+            event.setDir(Direction.UP);
+            event.init();
+            event.go();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
         }
     }
 
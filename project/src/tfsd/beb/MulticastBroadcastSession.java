@@ -0,0 +1,490 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.beb;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import tfsd.EventFactory;
+import tfsd.ProcessInitEvent;
+import tfsd.SampleAppl;
+import tfsd.SampleProcess;
+import tfsd.lrb.ProcessSet;
+import tfsd.pfd.CreateChannelsEvent;
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+
+/**
+ * Session implementing the Basic Broadcast protocol over IP multicast.
+ * <br>
+ * A broadcast is sent as one datagram to the group
+ * (SampleAppl.BEB_MULTICAST_GROUP), so the cost of sending it does not
+ * depend on the number of processes. The datagram carries the rank of the
+ * sender, the class of the event and a sequence number on top of its
+ * message; every process gets its own datagrams back from the group and
+ * drops them, the event itself is delivered to the local process without
+ * being serialized.
+ * <br>
+ * Datagrams may be lost or reordered, so each process delivers the
+ * broadcasts of a sender in sequence order, holding back those that come
+ * early. A gap in the sequence is asked for again at once with a
+ * RepairEvent over TCP, and every SampleAppl.BEB_REPAIR_PERIOD each
+ * process acknowledges what it delivered from every sender, which also
+ * uncovers the loss of a sender's last datagrams. Senders keep each
+ * broadcast until the correct processes acknowledged it, and resend it
+ * over TCP when asked or when it is still missing a period later.
+ * <br>
+ * TCP is also kept for the failure detector: the CreateChannelsEvent, and
+ * any event too big for a datagram, are sent to the other processes as
+ * BasicBroadcastSession does. Events too big for a datagram are numbered
+ * like the others, so they keep their place in the sequence.
+ */
+public class MulticastBroadcastSession extends Session {
+
+    /*
+     * Largest payload of a UDP datagram
+     */
+    static final int MAX_DATAGRAM = 65507;
+
+    /*
+     * Receive buffer asked for the socket, the system may give less
+     */
+    private static final int RECEIVE_BUFFER = 4 * 1024 * 1024;
+
+    private static final int INITIAL_RETAINED = 64;
+
+    /*
+     * State of the protocol: the set of processes in the group
+     */
+    private ProcessSet processes;
+
+    /*
+     * Destination of the copies sent over TCP
+     */
+    private AppiaMulticast others;
+
+    private Channel channel;
+    private InetSocketAddress group;
+    private MulticastSocket socket;
+    private MulticastReader reader;
+
+    /*
+     * Sender side: the broadcasts numbered from retainedFrom on, as sent to
+     * the group, in a ring indexed by sequence number
+     */
+    private int sent;
+    private int retainedFrom;
+    private byte[][] retained = new byte[INITIAL_RETAINED][];
+    // What each process acknowledged
+    private int[] acknowledged;
+    // Broadcasts sent by the last two repair timers: those sent a whole
+    // period ago and still not acknowledged are resent
+    private int sentAtTimer;
+    private int sentBeforeTimer;
+
+    /*
+     * Receiver side, by sender: the next broadcast to deliver, the highest
+     * one asked for again, and the broadcasts that came early
+     */
+    private int[] next;
+    private int[] requested;
+    private Map<Integer, SendableEvent>[] early;
+
+    /**
+     * Builds a new MulticastBroadcastSession.
+     * 
+     * @param layer
+     */
+    public MulticastBroadcastSession(Layer layer) {
+        super(layer);
+    }
+
+    /**
+     * Handles incoming events.
+     * 
+     * @see appia.Session#handle(appia.Event)
+     */
+    public void handle(Event event) {
+        if (event instanceof ChannelInit)
+            handleChannelInit((ChannelInit) event);
+        else if (event instanceof ChannelClose)
+            handleChannelClose((ChannelClose) event);
+        else if (event instanceof ProcessInitEvent)
+            handleProcessInitEvent((ProcessInitEvent) event);
+        else if (event instanceof RepairTimer)
+            handleRepairTimer((RepairTimer) event);
+        else if (event instanceof RepairEvent && event.getDir() == Direction.UP)
+            handleRepair((RepairEvent) event);
+        else if (event instanceof SendableEvent) {
+            if (event.getDir() == Direction.DOWN)
+                bebBroadcast((SendableEvent) event);
+            else
+                bebDeliver((SendableEvent) event);
+        }
+    }
+
+    private void handleChannelInit(ChannelInit init) {
+        channel = init.getChannel();
+        try {
+            init.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleChannelClose(ChannelClose close) {
+        if (reader != null) {
+            reader.setRunning(false);
+            socket.close();
+        }
+        try {
+            close.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the process set, joins the group and forwards the event to other
+     * layers.
+     * 
+     * @param event
+     */
+    @SuppressWarnings("unchecked")
+    private void handleProcessInitEvent(ProcessInitEvent event) {
+        processes = event.getProcessSet();
+
+        SampleProcess[] processArray = processes.getAllProcesses();
+        SocketAddress[] addresses = new SocketAddress[processArray.length];
+        Object[] otherAddresses = new Object[processArray.length - 1];
+        int a = 0;
+        for (int i = 0; i < processArray.length; i++) {
+            addresses[i] = processArray[i].getSocketAddress();
+            if (i != processes.getSelfRank())
+                otherAddresses[a++] = addresses[i];
+        }
+        others = new AppiaMulticast(null, otherAddresses);
+
+        acknowledged = new int[processArray.length];
+        next = new int[processArray.length];
+        requested = new int[processArray.length];
+        early = new Map[processArray.length];
+        for (int i = 0; i < early.length; i++)
+            early[i] = new HashMap<Integer, SendableEvent>();
+
+        try {
+            group = new InetSocketAddress(InetAddress
+                    .getByName(SampleAppl.BEB_MULTICAST_GROUP),
+                    SampleAppl.BEB_MULTICAST_PORT);
+            socket = new MulticastSocket(group.getPort());
+            socket.setReceiveBufferSize(RECEIVE_BUFFER);
+            socket.setTimeToLive(1);
+
+            // Use the interface of the local process address
+            InetAddress self = ((InetSocketAddress) addresses[processes
+                    .getSelfRank()]).getAddress();
+            NetworkInterface ni = NetworkInterface.getByInetAddress(self);
+            if (ni != null)
+                socket.setNetworkInterface(ni);
+
+            socket.joinGroup(group, ni);
+            System.err.println("BEB: joined multicast group " + group);
+
+            reader = new MulticastReader(socket, channel, addresses,
+                    processes.getSelfRank());
+            reader.start();
+        } catch (IOException e) {
+            // every broadcast goes over TCP then
+            e.printStackTrace();
+            socket = null;
+        }
+
+        try {
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            new RepairTimer(SampleAppl.BEB_REPAIR_PERIOD, channel,
+                    Direction.DOWN, this, EventQualifier.ON).go();
+        } catch (AppiaException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Broadcasts a message.
+     * 
+     * @param event
+     */
+    private void bebBroadcast(SendableEvent event) {
+        Object self = processes.getSelfProcess().getSocketAddress();
+
+        try {
+            if (others.getDestinations().length > 0) {
+                if (event instanceof CreateChannelsEvent)
+                    sendTcp(event, others);
+                else
+                    sendNumbered(event);
+            }
+
+            // the event itself goes upwards, to the "self" process
+            event.source = self;
+            event.dest = self;
+            event.setSourceSession(this);
+            event.setDir(Direction.UP);
+            event.init();
+            event.go();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Numbers a broadcast, keeps it until it is acknowledged and sends it
+     * to the group, or over TCP if it does not fit in a datagram.
+     */
+    private void sendNumbered(SendableEvent event)
+            throws CloneNotSupportedException, AppiaEventException {
+        int seq = sent++;
+
+        // Only the sequence number stays on the copy sent over TCP
+        Message msg = event.getMessage();
+        msg.pushInt(seq);
+        msg.pushString(event.getClass().getName());
+        msg.pushInt(processes.getSelfRank());
+        byte[] bytes = msg.toByteArray();
+        msg.popInt();
+        msg.popString();
+
+        retain(seq, bytes);
+        if (!sendDatagram(bytes))
+            sendTcp(event, others);
+        msg.popInt();
+    }
+
+    private void sendTcp(SendableEvent event, Object dest)
+            throws CloneNotSupportedException, AppiaEventException {
+        SendableEvent sendingEvent = (SendableEvent) event.cloneEvent();
+        sendingEvent.source = processes.getSelfProcess().getSocketAddress();
+        sendingEvent.dest = dest;
+        sendingEvent.setSourceSession(this);
+        sendingEvent.init();
+        sendingEvent.go();
+    }
+
+    /**
+     * Sends a numbered broadcast to the group.
+     * 
+     * @return false if it has to go over TCP instead
+     */
+    private boolean sendDatagram(byte[] bytes) {
+        if (socket == null || bytes.length > MAX_DATAGRAM)
+            return false;
+
+        try {
+            socket.send(new DatagramPacket(bytes, bytes.length, group));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    private void retain(int seq, byte[] bytes) {
+        if (seq - retainedFrom == retained.length) {
+            byte[][] grown = new byte[retained.length * 2][];
+            for (int s = retainedFrom; s < seq; s++)
+                grown[s % grown.length] = retained[s % retained.length];
+            retained = grown;
+        }
+        retained[seq % retained.length] = bytes;
+    }
+
+    /**
+     * Delivers an incoming message, from the group or from TCP.
+     * 
+     * @param event
+     */
+    private void bebDeliver(SendableEvent event) {
+        if (event instanceof CreateChannelsEvent) {
+            deliver(event);
+            return;
+        }
+
+        int sender = processes.getRank((SocketAddress) event.source);
+        int seq = event.getMessage().popInt();
+        if (sender < 0 || seq < next[sender])
+            return;
+
+        if (seq > next[sender]) {
+            early[sender].put(seq, event);
+            // Ask once for the broadcasts this one overtook
+            if (seq > requested[sender]) {
+                sendRepair(sender, Math.max(next[sender], requested[sender]),
+                        seq);
+                requested[sender] = seq;
+            }
+            return;
+        }
+
+        deliver(event);
+        next[sender]++;
+        SendableEvent following;
+        while ((following = early[sender].remove(next[sender])) != null) {
+            deliver(following);
+            next[sender]++;
+        }
+    }
+
+    private void deliver(SendableEvent event) {
+        try {
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Acknowledges what was delivered from every sender, and drops or
+     * resends what the other processes acknowledged.
+     */
+    private void handleRepairTimer(RepairTimer timer) {
+        for (int sender = 0; sender < next.length; sender++) {
+            if (sender != processes.getSelfRank()
+                    && processes.isCorrect(sender))
+                sendRepair(sender, next[sender], next[sender]);
+        }
+
+        int stable = sent;
+        for (int p = 0; p < acknowledged.length; p++) {
+            if (p != processes.getSelfRank() && processes.isCorrect(p))
+                stable = Math.min(stable, acknowledged[p]);
+        }
+        for (; retainedFrom < stable; retainedFrom++)
+            retained[retainedFrom % retained.length] = null;
+
+        sentBeforeTimer = sentAtTimer;
+        sentAtTimer = sent;
+    }
+
+    private void sendRepair(int sender, int from, int to) {
+        try {
+            RepairEvent repair = new RepairEvent();
+            Message msg = repair.getMessage();
+            msg.pushInt(to);
+            msg.pushInt(from);
+            msg.pushInt(next[sender]);
+            repair.source = processes.getSelfProcess().getSocketAddress();
+            repair.dest = processes.getProcess(sender).getSocketAddress();
+            repair.setChannel(channel);
+            repair.setDir(Direction.DOWN);
+            repair.setSourceSession(this);
+            repair.init();
+            repair.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Resends over TCP the broadcasts a process asked for: the gap it
+     * found, or on a periodic acknowledgement, those sent a whole period
+     * ago that it still misses.
+     */
+    private void handleRepair(RepairEvent repair) {
+        Message msg = repair.getMessage();
+        repair.setNext(msg.popInt());
+        repair.setMissing(msg.popInt());
+        repair.setReceived(msg.popInt());
+
+        int p = processes.getRank((SocketAddress) repair.source);
+        if (p < 0)
+            return;
+        acknowledged[p] = Math.max(acknowledged[p], repair.getNext());
+
+        int from = repair.getMissing();
+        int to = repair.getReceived();
+        if (from == to) {
+            from = repair.getNext();
+            to = sentBeforeTimer;
+        }
+        for (int seq = Math.max(from, retainedFrom); seq < Math.min(to, sent); seq++)
+            resend(retained[seq % retained.length], repair.source);
+    }
+
+    /**
+     * Sends a broadcast kept as it went to the group to one process over
+     * TCP.
+     */
+    private void resend(byte[] bytes, Object dest) {
+        // The message writes its headers over the bytes it was built on
+        Message msg = new Message(bytes.clone(), 0, bytes.length);
+        msg.popInt();
+        SendableEvent event = EventFactory.newEvent(msg.popString());
+        if (event == null)
+            return;
+
+        try {
+            event.setMessage(msg);
+            event.source = processes.getSelfProcess().getSocketAddress();
+            event.dest = dest;
+            event.setChannel(channel);
+            event.setDir(Direction.DOWN);
+            event.setSourceSession(this);
+            event.init();
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
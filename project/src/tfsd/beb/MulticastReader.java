@@ -0,0 +1,127 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.beb;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+import tfsd.EventFactory;
+
+/**
+ * Thread that receives the datagrams of the multicast group and inserts
+ * the events they carry in the Appia channel. The sequence number of the
+ * broadcast is left on the message, for MulticastBroadcastSession to
+ * deliver it in order.
+ */
+public class MulticastReader extends Thread {
+
+    private MulticastSocket socket;
+    private Channel channel;
+    private SocketAddress[] addresses;
+    private int selfRank;
+    private boolean running;
+
+    /**
+     * @param socket
+     *          socket joined to the group
+     * @param channel
+     *          channel the events are inserted in
+     * @param addresses
+     *          address of each process, by rank
+     * @param selfRank
+     *          rank of the local process, whose datagrams are dropped
+     */
+    public MulticastReader(MulticastSocket socket, Channel channel,
+            SocketAddress[] addresses, int selfRank) {
+        super("MulticastReader");
+        setDaemon(true);
+        this.socket = socket;
+        this.channel = channel;
+        this.addresses = addresses;
+        this.selfRank = selfRank;
+        running = true;
+    }
+
+    public void run() {
+        byte[] buffer = new byte[MulticastBroadcastSession.MAX_DATAGRAM];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+        while (isRunning()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                // the socket was closed by the session
+                if (isRunning())
+                    e.printStackTrace();
+                return;
+            }
+
+            // The event gets its own copy, its message may grow later on
+            byte[] bytes = new byte[packet.getLength()];
+            System.arraycopy(buffer, 0, bytes, 0, bytes.length);
+            Message msg = new Message(bytes, 0, bytes.length);
+
+            int rank = msg.popInt();
+            if (rank == selfRank || rank < 0 || rank >= addresses.length)
+                continue;
+            SendableEvent event = EventFactory.newEvent(msg.popString());
+            if (event == null)
+                continue;
+
+            event.setMessage(msg);
+            event.source = addresses[rank];
+            event.dest = addresses[selfRank];
+            try {
+                event.asyncGo(channel, Direction.UP);
+            } catch (AppiaEventException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the thread, after the socket is closed.
+     */
+    public synchronized void setRunning(boolean running) {
+        this.running = running;
+    }
+}
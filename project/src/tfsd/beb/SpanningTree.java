@@ -0,0 +1,139 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.beb;
+
+/**
+ * Spanning trees of fan-out k over the correct processes, one rooted at
+ * each of them.
+ * <br>
+ * The correct processes, in rank order starting at the root, are laid out
+ * as an implicit heap: the i-th one forwards to the (k*i+1)-th up to the
+ * (k*i+k)-th. A broadcast reaches m processes in about log_k(m) hops, and
+ * no process sends it more than k times.
+ */
+public class SpanningTree {
+
+    private final int fanout;
+
+    // Ranks of the correct processes, in order
+    private int[] members;
+    // Index of each rank in members, -1 once it crashed
+    private int[] position;
+
+    /**
+     * @param n
+     *          number of processes
+     * @param fanout
+     *          children of each inner node
+     */
+    public SpanningTree(int n, int fanout) {
+        if (fanout < 1)
+            throw new IllegalArgumentException("The fan-out must be at least 1");
+        this.fanout = fanout;
+        members = new int[n];
+        position = new int[n];
+        for (int i = 0; i < n; i++) {
+            members[i] = i;
+            position[i] = i;
+        }
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    public int getSize() {
+        return members.length;
+    }
+
+    public boolean contains(int rank) {
+        return position[rank] >= 0;
+    }
+
+    /**
+     * Takes a crashed process out of every tree.
+     * 
+     * @return false if it was already out
+     */
+    public boolean remove(int rank) {
+        if (position[rank] < 0)
+            return false;
+
+        int[] remaining = new int[members.length - 1];
+        int m = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] != rank) {
+                remaining[m] = members[i];
+                position[members[i]] = m++;
+            }
+        }
+        position[rank] = -1;
+        members = remaining;
+        return true;
+    }
+
+    /**
+     * Gets the processes a node forwards the broadcasts of a root to.
+     * 
+     * @return their ranks, empty if the root or the node crashed
+     */
+    public int[] children(int root, int rank) {
+        if (position[root] < 0 || position[rank] < 0)
+            return new int[0];
+
+        int m = members.length;
+        int index = (position[rank] - position[root] + m) % m;
+        long first = (long) index * fanout + 1;
+        if (first >= m)
+            return new int[0];
+        int count = (int) Math.min(fanout, m - first);
+
+        int[] children = new int[count];
+        for (int i = 0; i < count; i++)
+            children[i] = members[(int) ((position[root] + first + i) % m)];
+        return children;
+    }
+
+    /**
+     * Gets the number of hops a broadcast takes to reach every correct
+     * process.
+     */
+    public int depth() {
+        int depth = 0;
+        long reached = 1;
+        long level = 1;
+        while (reached < members.length) {
+            level *= fanout;
+            reached += level;
+            depth++;
+        }
+        return depth;
+    }
+}
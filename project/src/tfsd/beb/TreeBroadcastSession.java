@@ -0,0 +1,448 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.beb;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import tfsd.EventFactory;
+import tfsd.ProcessInitEvent;
+import tfsd.SampleAppl;
+import tfsd.SampleProcess;
+import tfsd.lrb.Crash;
+import tfsd.lrb.DeliveredWindow;
+import tfsd.lrb.ProcessSet;
+import tfsd.pfd.CreateChannelsEvent;
+import tfsd.pfd.HeartbeatEvent;
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+
+/**
+ * Session implementing the Basic Broadcast protocol over spanning trees.
+ * <br>
+ * A broadcast goes down the SpanningTree rooted at its sender, of fan-out
+ * SampleAppl.BEB_TREE_FANOUT: every process delivers it and forwards it to
+ * its children, so no process sends it more than fan-out times. The
+ * message carries the root and its sequence number, which drop the
+ * duplicates.
+ * <br>
+ * Every process keeps the broadcasts of each root until every correct
+ * process delivered them: each SampleAppl.RB_STABILITY_PERIOD the
+ * processes announce their delivered watermarks, per root, in a
+ * WatermarkEvent. When a process crashes it leaves the trees, and each
+ * process sends the kept broadcasts to the children it gained; a broadcast
+ * reaches them again even when the crashed process was on its way. The
+ * broadcasts of a crashed root are not forwarded any further.
+ * <br>
+ * The events of the failure detectors, CreateChannelsEvent and
+ * HeartbeatEvent, and the WatermarkEvents go to every process directly: a
+ * crashed relay must not make the processes behind it look crashed.
+ */
+public class TreeBroadcastSession extends Session {
+
+    /*
+     * A broadcast as it is sent down the tree
+     */
+    private static class Retained {
+        String type;
+        byte[] bytes;
+
+        Retained(String type, byte[] bytes) {
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+
+    /*
+     * State of the protocol: the set of processes in the group
+     */
+    private ProcessSet processes;
+    private Channel channel;
+
+    private SpanningTree tree;
+
+    // Destination of the broadcasts of each root, null for a leaf
+    private AppiaMulticast[] children;
+    // Every other process
+    private AppiaMulticast others;
+
+    private int seqNumber;
+    private DeliveredWindow[] delivered;
+    // Broadcasts of each root kept to be sent again after a crash, by
+    // sequence number, until every correct process delivered them
+    private TreeMap<Integer, Retained>[] retained;
+    // Watermarks announced by each process, and the last ones we announced
+    private int[][] acked;
+    private int[] announced;
+
+    /**
+     * Builds a new TreeBroadcastSession.
+     * 
+     * @param layer
+     */
+    public TreeBroadcastSession(Layer layer) {
+        super(layer);
+    }
+
+    /**
+     * Handles incoming events.
+     * 
+     * @see appia.Session#handle(appia.Event)
+     */
+    public void handle(Event event) {
+        if (event instanceof ChannelInit)
+            handleChannelInit((ChannelInit) event);
+        else if (event instanceof ProcessInitEvent)
+            handleProcessInitEvent((ProcessInitEvent) event);
+        else if (event instanceof Crash)
+            handleCrash((Crash) event);
+        else if (event instanceof WatermarkTimer)
+            handleWatermarkTimer((WatermarkTimer) event);
+        else if (event instanceof WatermarkEvent
+                && event.getDir() == Direction.UP)
+            handleWatermark((WatermarkEvent) event);
+        else if (event instanceof SendableEvent) {
+            if (event.getDir() == Direction.DOWN)
+                bebBroadcast((SendableEvent) event);
+            else
+                treeDeliver((SendableEvent) event);
+        } else {
+            try {
+                event.go();
+            } catch (AppiaEventException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void handleChannelInit(ChannelInit init) {
+        channel = init.getChannel();
+        try {
+            init.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the process set, builds the trees and forwards the event to
+     * other layers.
+     * 
+     * @param event
+     */
+    @SuppressWarnings("unchecked")
+    private void handleProcessInitEvent(ProcessInitEvent event) {
+        processes = event.getProcessSet();
+        int n = processes.getSize();
+
+        SampleProcess[] processArray = processes.getAllProcesses();
+        Object[] addresses = new Object[n - 1];
+        int a = 0;
+        for (int i = 0; i < n; i++)
+            if (i != processes.getSelfRank())
+                addresses[a++] = processArray[i].getSocketAddress();
+        others = new AppiaMulticast(null, addresses);
+
+        tree = new SpanningTree(n, SampleAppl.BEB_TREE_FANOUT);
+        children = new AppiaMulticast[n];
+        for (int root = 0; root < n; root++)
+            children[root] = destination(tree.children(root,
+                    processes.getSelfRank()));
+        System.err.println("BEB: spanning trees of fan-out "
+                + tree.getFanout() + ", depth " + tree.depth());
+
+        seqNumber = 0;
+        delivered = new DeliveredWindow[n];
+        retained = new TreeMap[n];
+        for (int i = 0; i < n; i++) {
+            delivered[i] = new DeliveredWindow();
+            retained[i] = new TreeMap<Integer, Retained>();
+        }
+        acked = new int[n][n];
+        announced = new int[n];
+
+        try {
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            new WatermarkTimer(SampleAppl.RB_STABILITY_PERIOD, channel,
+                    Direction.DOWN, this, EventQualifier.ON).go();
+        } catch (AppiaException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Takes the crashed process out of the trees and sends the kept
+     * broadcasts to the new children.
+     * 
+     * @param crash
+     */
+    private void handleCrash(Crash crash) {
+        int crashed = crash.getCrashedProcess();
+        int self = processes.getSelfRank();
+
+        int[][] before = new int[processes.getSize()][];
+        for (int root = 0; root < before.length; root++)
+            before[root] = tree.children(root, self);
+
+        if (tree.remove(crashed)) {
+            for (int root = 0; root < before.length; root++) {
+                int[] after = tree.children(root, self);
+                children[root] = destination(after);
+
+                int[] gained = subtract(after, before[root]);
+                if (gained.length == 0)
+                    continue;
+                AppiaMulticast dest = destination(gained);
+                for (Retained r : retained[root].values())
+                    send(r, dest);
+            }
+        }
+
+        try {
+            crash.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Broadcasts a message.
+     * 
+     * @param event
+     */
+    private void bebBroadcast(SendableEvent event) {
+        Object self = processes.getSelfProcess().getSocketAddress();
+        int selfRank = processes.getSelfRank();
+
+        try {
+            if (direct(event)) {
+                if (others.getDestinations().length > 0) {
+                    SendableEvent sendingEvent = (SendableEvent) event.cloneEvent();
+                    sendingEvent.source = self;
+                    sendingEvent.dest = others;
+                    sendingEvent.setSourceSession(this);
+                    sendingEvent.init();
+                    sendingEvent.go();
+                }
+            } else {
+                // The header is taken off again, the event is delivered locally
+                Message msg = event.getMessage();
+                msg.pushInt(seqNumber++);
+                msg.pushInt(selfRank);
+                Retained r = new Retained(event.getClass().getName(),
+                        msg.toByteArray());
+                msg.popInt();
+                msg.popInt();
+
+                retained[selfRank].put(seqNumber - 1, r);
+                send(r, children[selfRank]);
+            }
+
+            // the event itself goes upwards, to the "self" process
+            event.source = self;
+            event.dest = self;
+            event.setSourceSession(this);
+            event.setDir(Direction.UP);
+            event.init();
+            event.go();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forwards an incoming broadcast down the tree and delivers it.
+     * 
+     * @param event
+     */
+    private void treeDeliver(SendableEvent event) {
+        if (!direct(event)) {
+            Message msg = event.getMessage();
+            int root = msg.popInt();
+            int seq = msg.popInt();
+            if (root < 0 || root >= delivered.length
+                    || root == processes.getSelfRank()
+                    || !delivered[root].add(seq))
+                return;
+
+            msg.pushInt(seq);
+            msg.pushInt(root);
+            Retained r = new Retained(event.getClass().getName(),
+                    msg.toByteArray());
+            msg.popInt();
+            msg.popInt();
+
+            retained[root].put(seq, r);
+            send(r, children[root]);
+
+            // the layers above want the process that broadcast it
+            event.source = processes.getProcess(root).getSocketAddress();
+        }
+
+        try {
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean direct(SendableEvent event) {
+        return event instanceof CreateChannelsEvent
+                || event instanceof HeartbeatEvent
+                || event instanceof WatermarkEvent;
+    }
+
+    /**
+     * Announces the delivered watermarks, if they moved, and drops the
+     * broadcasts every correct process delivered.
+     * 
+     * @param timer
+     */
+    private void handleWatermarkTimer(WatermarkTimer timer) {
+        int self = processes.getSelfRank();
+        int[] watermarks = new int[delivered.length];
+        for (int root = 0; root < watermarks.length; root++)
+            watermarks[root] = root == self ? seqNumber
+                    : delivered[root].getLowWatermark();
+
+        if (!Arrays.equals(watermarks, announced)
+                && others.getDestinations().length > 0) {
+            announced = watermarks;
+
+            try {
+                WatermarkEvent event = new WatermarkEvent();
+                for (int root = watermarks.length - 1; root >= 0; root--)
+                    event.getMessage().pushInt(watermarks[root]);
+                event.source = processes.getSelfProcess().getSocketAddress();
+                event.dest = others;
+                event.setChannel(channel);
+                event.setDir(Direction.DOWN);
+                event.setSourceSession(this);
+                event.init();
+                event.go();
+            } catch (AppiaEventException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (int root = 0; root < retained.length; root++) {
+            // The root and this process have every broadcast of the root
+            int stable = Integer.MAX_VALUE;
+            for (int p = 0; p < acked.length; p++) {
+                if (p != self && p != root && processes.isCorrect(p))
+                    stable = Math.min(stable, acked[p][root]);
+            }
+            retained[root].headMap(stable).clear();
+        }
+    }
+
+    /**
+     * Called when some process announces its delivered watermarks.
+     * 
+     * @param event
+     */
+    private void handleWatermark(WatermarkEvent event) {
+        int[] watermarks = new int[acked.length];
+        for (int root = 0; root < watermarks.length; root++)
+            watermarks[root] = event.getMessage().popInt();
+        event.setWatermarks(watermarks);
+
+        int p = processes.getRank((SocketAddress) event.source);
+        if (p < 0)
+            return;
+        for (int root = 0; root < watermarks.length; root++)
+            acked[p][root] = Math.max(acked[p][root], watermarks[root]);
+    }
+
+    /**
+     * Sends a broadcast to some children, in one event.
+     */
+    private void send(Retained r, AppiaMulticast dest) {
+        if (dest == null)
+            return;
+        SendableEvent event = EventFactory.newEvent(r.type);
+        if (event == null)
+            return;
+        try {
+            event.setMessage(new Message(r.bytes, 0, r.bytes.length));
+            event.source = processes.getSelfProcess().getSocketAddress();
+            event.dest = dest;
+            event.setChannel(channel);
+            event.setDir(Direction.DOWN);
+            event.setSourceSession(this);
+            event.init();
+            event.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private AppiaMulticast destination(int[] ranks) {
+        if (ranks.length == 0)
+            return null;
+        SocketAddress[] addresses = new SocketAddress[ranks.length];
+        for (int i = 0; i < ranks.length; i++)
+            addresses[i] = processes.getProcess(ranks[i]).getSocketAddress();
+        return new AppiaMulticast(null, addresses);
+    }
+
+    private static int[] subtract(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            boolean found = false;
+            for (int j = 0; j < b.length && !found; j++)
+                found = a[i] == b[j];
+            if (!found)
+                result[count++] = a[i];
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.beb;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+
+/**
+ * Carries the delivered watermark of a process for every root of the
+ * spanning trees: all the broadcasts of root p with a sequence number
+ * below watermark p were delivered by it.
+ * 
+ */
+public class WatermarkEvent extends SendableEvent {
+
+	private int[] watermarks;
+
+	/**
+	 * Default constructor.
+	 */
+	public WatermarkEvent() {
+		super();
+	}
+
+	public WatermarkEvent(Channel c, int dir, Session s)
+			throws AppiaEventException {
+		super(c, dir, s);
+	}
+
+	public int[] getWatermarks() {
+		return watermarks;
+	}
+
+	public void setWatermarks(int[] watermarks) {
+		this.watermarks = watermarks;
+	}
+}
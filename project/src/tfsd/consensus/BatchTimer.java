@@ -0,0 +1,81 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.channel.Timer;
+
+/**
+ * Timer bounding how long a batch of proposals waits before being
+ * proposed.
+ * 
+ */
+public class BatchTimer extends Timer {
+
+	private int batchNumber;
+
+	/**
+	 * Default constructor.
+	 */
+	public BatchTimer() {
+		super();
+	}
+
+	/**
+	 * Creates a new BatchTimer.
+	 * 
+	 * @param when
+	 *            the delay, in milliseconds
+	 * @param channel
+	 * @param source
+	 * @param qualifier
+	 * @throws AppiaEventException
+	 * @throws AppiaException
+	 */
+	public BatchTimer(long when, Channel channel, Session source, int qualifier)
+			throws AppiaEventException, AppiaException {
+		super(when, "consensus_batch_timer", channel, Direction.DOWN, source,
+				qualifier);
+	}
+
+	/**
+	 * Gets the number of the batch the timer was set for.
+	 */
+	public int getBatchNumber() {
+		return batchNumber;
+	}
+
+	public void setBatchNumber(int batchNumber) {
+		this.batchNumber = batchNumber;
+	}
+}
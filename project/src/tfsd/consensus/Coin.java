@@ -0,0 +1,50 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+/**
+ * Coin tossed by the randomized consensus when a round ends without any
+ * value proposed by a majority.
+ * 
+ */
+public interface Coin {
+
+	/**
+	 * Picks the value to propose in the next round.
+	 * 
+	 * @param timestamp
+	 *            the consensus instance
+	 * @param round
+	 *            the round that ended without a value
+	 * @param quorum
+	 *            the phase 1 proposals of that round
+	 * @return the value proposed by one member of the quorum
+	 */
+	int[] toss(int timestamp, int round, QuorumTally quorum);
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+import net.sf.appia.core.message.MsgBuffer;
+import net.sf.appia.core.message.Message;
+
+/**
+ * Wire format of the consensus headers.
+ * <br>
+ * A header is a fixed number of int fields followed by an optional value
+ * (an int array), written as zig-zag varints in a single buffer: small
+ * timestamps, phases and values take one byte each instead of four. The
+ * value is preceded by its length plus one, 0 standing for no value.
+ * 
+ */
+public final class ConsensusCodec {
+
+	// Longest varint encoding of an int
+	private static final int MAX_VARINT = 5;
+
+	private ConsensusCodec() {
+	}
+
+	/**
+	 * Pushes a header.
+	 * 
+	 * @param msg
+	 *            the message
+	 * @param fields
+	 *            the fields, in the order pop returns them
+	 * @param value
+	 *            the value, may be null
+	 */
+	public static void push(Message msg, int[] fields, int[] value) {
+		int valueLength = value == null ? 0 : value.length;
+		byte[] buf = new byte[MAX_VARINT * (fields.length + 1 + valueLength)];
+
+		int pos = 0;
+		for (int field : fields)
+			pos = writeVarint(buf, pos, field);
+		if (value == null) {
+			pos = writeVarint(buf, pos, 0);
+		} else {
+			pos = writeVarint(buf, pos, value.length + 1);
+			for (int element : value)
+				pos = writeVarint(buf, pos, element);
+		}
+
+		MsgBuffer mbuf = new MsgBuffer();
+		mbuf.len = pos;
+		msg.push(mbuf);
+		System.arraycopy(buf, 0, mbuf.data, mbuf.off, pos);
+	}
+
+	/**
+	 * Pops a header.
+	 * 
+	 * @param msg
+	 *            the message
+	 * @param fields
+	 *            filled with the fields of the header
+	 * @return the value, or null if there was none
+	 */
+	public static int[] pop(Message msg, int[] fields) {
+		MsgBuffer mbuf = new MsgBuffer();
+		mbuf.len = msg.length();
+		msg.peek(mbuf);
+
+		int[] pos = { mbuf.off };
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = readVarint(mbuf.data, pos);
+
+		int[] value = null;
+		int length = readVarint(mbuf.data, pos) - 1;
+		if (length >= 0) {
+			value = new int[length];
+			for (int i = 0; i < length; i++)
+				value[i] = readVarint(mbuf.data, pos);
+		}
+
+		msg.discard(pos[0] - mbuf.off);
+		return value;
+	}
+
+	private static int writeVarint(byte[] buf, int pos, int value) {
+		int bits = (value << 1) ^ (value >> 31);
+		while ((bits & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((bits & 0x7F) | 0x80);
+			bits >>>= 7;
+		}
+		buf[pos++] = (byte) bits;
+		return pos;
+	}
+
+	private static int readVarint(byte[] buf, int[] pos) {
+		int bits = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf[pos[0]++];
+			bits |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+}
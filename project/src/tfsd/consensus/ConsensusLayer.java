@@ -47,8 +47,9 @@ public class ConsensusLayer extends Layer {
 
 	public ConsensusLayer() {
 		/* events that the protocol will create */
-		evProvide = new Class[1];
+		evProvide = new Class[2];
 		evProvide[0] = DecideEvent.class;
+		evProvide[1] = BatchTimer.class;
 
 		/*
 		 * events that the protocol require to work. This is a subset of the
@@ -59,11 +60,12 @@ public class ConsensusLayer extends Layer {
 		evRequire[1] = ProcessInitEvent.class;
 
 		/* events that the protocol will accept */
-		evAccept = new Class[4];
+		evAccept = new Class[5];
 		evAccept[0] = ProposeEvent.class;
 		evAccept[1] = SendableEvent.class;
 		evAccept[2] = ChannelInit.class;
 		evAccept[3] = ProcessInitEvent.class;
+		evAccept[4] = BatchTimer.class;
 
 	}
 
@@ -29,28 +29,49 @@
 package tfsd.consensus;
 
 import java.net.SocketAddress;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.Random;
 
 import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
 import net.sf.appia.core.Channel;
 import net.sf.appia.core.Direction;
 import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
 import net.sf.appia.core.Layer;
 import net.sf.appia.core.Session;
 import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
 import net.sf.appia.core.message.Message;
+import tfsd.DecisionListener;
 import tfsd.ProcessInitEvent;
 import tfsd.SampleAppl;
-import tfsd.SampleApplSession;
-import tfsd.SampleProcess;
 import tfsd.lrb.ProcessSet;
 
 /**
  * Session implementing the Randomized Consensus Protocol
+ * <br>
+ * Up to SampleAppl.CONSENSUS_WINDOW instances run concurrently, each one
+ * with its own phase state. Decisions are handed to the application in
+ * instance order.
+ * <br>
+ * Proposals and decisions are only kept for instances that are not
+ * decided yet and at most SampleAppl.CONSENSUS_LOOKAHEAD instances ahead
+ * of the last started one; everything else is dropped and counted.
+ * Decisions are not sent again, so the lookahead must cover how far a
+ * process may lag behind the others.
+ * <br>
+ * The value of an instance is a batch of application proposals. Values
+ * proposed within SampleAppl.CONSENSUS_BATCH_SIZE proposals or
+ * SampleAppl.CONSENSUS_BATCH_DELAY milliseconds of each other are decided
+ * together, and handed to the application one by one.
+ * <br>
+ * When n > 3f and SampleAppl.CONSENSUS_FAST_PATH is set, round 0 is a
+ * single phase: a process that sees n - f identical proposals decides
+ * right away, otherwise it adopts a value proposed by at least n - 2f of
+ * them (or keeps its own) and runs the protocol from round 1.
  * 
  */
 public class ConsensusSession extends Session {
@@ -59,18 +80,67 @@ public class ConsensusSession extends Session {
 	public static final int PHASE_2 = 2;
 	public static final int PHASE_DECIDE = 3;
 
+	// Instances decided between two round statistics reports
+	private static final int STATS_INTERVAL = 100;
+
 	private ProcessSet processes;
+	private DecisionListener listener;
+	private Channel channel;
 
 	// Storing the unprocessed proposals
-	List<ProposeEvent> proposalQueue;
+	ProposalStore proposals;
 	
-	// Storing the received decide events for future startedTimestamp values
-	Map<Integer, DecideEvent> decisionQueue;
+	// Storing the received decisions for future startedTimestamp values
+	DecisionBuffer decisionQueue;
+
+	// Instances started locally whose decision was not yet delivered
+	Map<Integer, Instance> instances;
+
+	// Batches proposed by the application while the window was full
+	LinkedList<int[]> pendingProposals;
+
+	// Values of the batch being filled
+	private int[] batch;
+	private int batchSize;
+	private int batchNumber;
 
 	private int startedTimestamp;
 	private int decidedTimestamp;
-	private int phaseTimestamp;
-	private int currentPhase;
+	private int deliveredValues;
+	private int runningInstances;
+
+	private long evictedProposals;
+	private long evictedDecisions;
+
+	// Tossed when a round ends without a value
+	private Coin coin;
+
+	// Decide in one step when the first proposals agree
+	private boolean fastPath;
+
+	private long rounds;
+	private long coinTosses;
+	private long fastDecisions;
+
+	/**
+	 * State of a single consensus instance.
+	 */
+	private static class Instance {
+
+		final int timestamp;
+		int phaseTimestamp;
+		int currentPhase;
+		boolean decided;
+		int[] decision;
+		int[] proposal;
+
+		Instance(int timestamp) {
+			this.timestamp = timestamp;
+			phaseTimestamp = 0;
+			currentPhase = PHASE_1;
+			decided = false;
+		}
+	}
 
 	/**
 	 * Builds a new ConsensusSession.
@@ -80,13 +150,69 @@ public class ConsensusSession extends Session {
 	public ConsensusSession(Layer layer) {
 		super(layer);
 
-		proposalQueue = new ArrayList<ProposeEvent>();
-		decisionQueue = new HashMap<Integer, DecideEvent>();
+		decisionQueue = new DecisionBuffer(SampleAppl.CONSENSUS_LOOKAHEAD);
+		instances = new HashMap<Integer, Instance>();
+		pendingProposals = new LinkedList<int[]>();
+
+		batch = new int[SampleAppl.CONSENSUS_BATCH_SIZE];
+		batchSize = 0;
+		batchNumber = 0;
 
 		startedTimestamp = 0;
 		decidedTimestamp = 0;
-		phaseTimestamp = 0;
-		currentPhase = PHASE_1;
+		deliveredValues = 0;
+		runningInstances = 0;
+
+		evictedProposals = 0;
+		evictedDecisions = 0;
+
+		rounds = 0;
+		coinTosses = 0;
+		fastDecisions = 0;
+	}
+
+	/**
+	 * Gets the number of proposals discarded, either because their instance
+	 * or round was over or because they were too far ahead.
+	 */
+	public long getEvictedProposals() {
+		return evictedProposals;
+	}
+
+	/**
+	 * Gets the number of decisions discarded, either because they were
+	 * already delivered or because they were too far ahead.
+	 */
+	public long getEvictedDecisions() {
+		return evictedDecisions;
+	}
+
+	/**
+	 * Gets the number of instances decided and delivered.
+	 */
+	public int getDecidedInstances() {
+		return decidedTimestamp;
+	}
+
+	/**
+	 * Gets the number of rounds completed, over all instances.
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Gets the number of rounds that ended with a coin toss.
+	 */
+	public long getCoinTosses() {
+		return coinTosses;
+	}
+
+	/**
+	 * Gets the number of instances decided by the one-step fast path.
+	 */
+	public long getFastDecisions() {
+		return fastDecisions;
 	}
 
 	/**
@@ -97,7 +223,9 @@ public class ConsensusSession extends Session {
 	public void handle(Event event) {
 
 		try {
-			if (event instanceof DecideEvent) {
+			if (event instanceof BatchTimer) {
+				handleBatchTimer((BatchTimer) event);
+			} else if (event instanceof DecideEvent) {
 				handleDecide((DecideEvent) event);
 			} else if (event instanceof ProposeEvent) {
 				handlePropose((ProposeEvent) event);
@@ -105,6 +233,8 @@ public class ConsensusSession extends Session {
 				handleSendable((SendableEvent) event);
 			} else if (event instanceof ProcessInitEvent) {
 				handleProcessInitEvent((ProcessInitEvent) event);
+			} else if (event instanceof ChannelInit) {
+				handleChannelInit((ChannelInit) event);
 			} else {
 				event.go();
 			}
@@ -113,66 +243,170 @@ public class ConsensusSession extends Session {
 		}
 	}
 
+	private void handleChannelInit(ChannelInit init)
+			throws AppiaEventException {
+
+		channel = init.getChannel();
+		init.go();
+	}
+
 	private void handleProcessInitEvent(ProcessInitEvent event)
 			throws AppiaEventException {
 
 		processes = event.getProcessSet();
+		listener = event.getDecisionListener();
+		proposals = new ProposalStore(processes.getSize());
+		if (SampleAppl.CONSENSUS_COIN.equals("local"))
+			coin = new LocalCoin(processes.getSize());
+		else
+			coin = new SharedCoin();
+
+		// Two quorums of n - f processes only share a unanimous value
+		// when n > 3f
+		fastPath = SampleAppl.CONSENSUS_FAST_PATH
+				&& processes.getSize() > 3 * SampleAppl.TOLERATED_FAILURES;
+		if (SampleAppl.CONSENSUS_FAST_PATH && !fastPath) {
+			System.err.println("RC: fast path disabled, it needs n > 3f");
+		}
 		event.go();
 	}
 
 	private void handleSendable(SendableEvent event)
 			throws AppiaEventException {
 
-		String proposed = event.getMessage().popString().trim();
+		int proposed = event.getMessage().popInt();
 		System.err.println("RC: Received proposed value: " + proposed);
 
-		// Convert to integer
-		int proposedInteger = 0;
-		try {
-			proposedInteger = Integer.parseInt(proposed);
-		} catch (NumberFormatException ex) {
-			System.err.println("RC: Error parsing proposed value");
+		batch[batchSize++] = proposed;
+
+		if (batchSize == batch.length) {
+			closeBatch();
+		} else if (batchSize == 1) {
+			// First value of a new batch, bound how long it may wait
+			try {
+				BatchTimer timer = new BatchTimer(
+						SampleAppl.CONSENSUS_BATCH_DELAY, channel, this,
+						EventQualifier.ON);
+				timer.setBatchNumber(batchNumber);
+				timer.go();
+			} catch (AppiaException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handleBatchTimer(BatchTimer timer) throws AppiaEventException {
+
+		// The batch may have been closed by size already
+		if (timer.getBatchNumber() == batchNumber && batchSize > 0) {
+			closeBatch();
+		}
+	}
+
+	private void closeBatch() throws AppiaEventException {
+
+		// The batch waits for a free slot in the window
+		pendingProposals.add(Arrays.copyOf(batch, batchSize));
+		batchSize = 0;
+		batchNumber++;
+
+		startPendingInstances();
+	}
+
+	private void startPendingInstances() throws AppiaEventException {
+
+		while (runningInstances < SampleAppl.CONSENSUS_WINDOW
+				&& !pendingProposals.isEmpty()) {
+			startInstance(pendingProposals.removeFirst());
 		}
+	}
+
+	private void startInstance(int[] value) throws AppiaEventException {
 
 		startedTimestamp++;
-		phaseTimestamp = 0;
-		currentPhase = PHASE_1;
+		runningInstances++;
+
+		Instance instance = new Instance(startedTimestamp);
+		instance.proposal = value;
+		instances.put(instance.timestamp, instance);
 
 		// If we already know this instance is decided, act accordingly
-		if (decisionQueue.containsKey(startedTimestamp)) {
-			decide(decisionQueue.get(startedTimestamp));
+		if (decisionQueue.contains(instance.timestamp)) {
+			decided(instance, decisionQueue.take(instance.timestamp));
 		} else {
-			sendProposal(event.getSourceSession(), event.getChannel(), PHASE_1,
-				proposedInteger, event.getDir());
+			sendProposal(instance, PHASE_1, value);
 		}
-
 	}
 
-	private void handleDecide(DecideEvent event) {
+	private void handleDecide(DecideEvent event) throws AppiaEventException {
 
 		if (event.getDir() == Direction.UP) {
 
-			int timestamp = event.getMessage().popInt();
-			int value = event.getMessage().popInt();
+			int[] header = new int[1];
+			int[] value = ConsensusCodec.pop(event.getMessage(), header);
+			int timestamp = header[0];
 			
 			event.setTimestamp(timestamp);
 			event.setValue(value);
 			
-			if (timestamp == startedTimestamp && timestamp > decidedTimestamp) {
-				decide(event);
-			} else {
-				decisionQueue.put(timestamp, event);
+			if (timestamp <= decidedTimestamp) {
+				evictedDecisions++;
+				return;
+			}
+
+			Instance instance = instances.get(timestamp);
+			if (instance == null) {
+				if (!decisionQueue.put(startedTimestamp, timestamp, value)) {
+					evictedDecisions++;
+				}
+			} else if (!instance.decided) {
+				decided(instance, value);
+				startPendingInstances();
 			}
 		}
 	}
+
+	/**
+	 * Records the decision of an instance and delivers every decision that
+	 * is no longer waiting for an earlier instance.
+	 */
+	private void decided(Instance instance, int[] value) {
+
+		instance.decided = true;
+		instance.decision = value;
+		runningInstances--;
+
+		// The proposals of a decided instance are no longer needed
+		evictedProposals += proposals.evict(instance.timestamp);
+
+		Instance next = instances.get(decidedTimestamp + 1);
+		while (next != null && next.decided) {
+			instances.remove(next.timestamp);
+			decide(next);
+			next = instances.get(decidedTimestamp + 1);
+		}
+
+		evictedProposals += proposals.evictThrough(decidedTimestamp);
+	}
 	
-	private void decide(DecideEvent event) {
+	private void decide(Instance instance) {
 		
-		System.err.printf("*** DECIDING %d *** %d, %d, %d\n", event.getValue(),
-				event.getTimestamp(), startedTimestamp, decidedTimestamp);
+		System.err.printf("*** DECIDING %s *** %d, %d, %d\n",
+				Arrays.toString(instance.decision), instance.timestamp,
+				startedTimestamp, decidedTimestamp);
 
-		SampleApplSession.instance.decide(decidedTimestamp, event.getValue());
+		for (int value : instance.decision) {
+			listener.decide(deliveredValues, value);
+			deliveredValues++;
+		}
 		decidedTimestamp++;
+
+		if (decidedTimestamp % STATS_INTERVAL == 0) {
+			System.err.printf("RC: %d instances decided, %.2f rounds per"
+					+ " instance, %d coin tosses, %d fast decisions\n",
+					decidedTimestamp, (double) rounds / decidedTimestamp,
+					coinTosses, fastDecisions);
+		}
 	}
 
 	private void handlePropose(ProposeEvent event)
@@ -185,117 +419,187 @@ public class ConsensusSession extends Session {
 		}
 
 		// Set the value on the proposed object, for convenience
-		event.setPhaseTimestamp(event.getMessage().popInt());
-		event.setTimestamp(event.getMessage().popInt());
-		event.setValue(event.getMessage().popInt());
-		event.setPhase(event.getMessage().popInt());
+		int[] header = new int[3];
+		event.setValue(ConsensusCodec.pop(event.getMessage(), header));
+		event.setPhaseTimestamp(header[0]);
+		event.setTimestamp(header[1]);
+		event.setPhase(header[2]);
 		
 		// Set the process id
-		SampleProcess pi = processes.getProcess((SocketAddress) event.source);
-		event.setProcess(pi.getProcessNumber());
+		event.setProcess(processes.getRank((SocketAddress) event.source));
+
+		// Ignore events of processes outside the group
+		if (event.getProcess() < 0) {
+			return;
+		}
 
 		// Ignore events with a lower timestamp than the current one
 		if (event.getTimestamp() <= decidedTimestamp) {
 			// System.err.printf("RC: Timestamp %d was already decided, aborting (%d)\n",
 			// event.getTimestamp(), event.getPhase());
+			evictedProposals++;
+			return;
+		}
+
+		// Ignore events too far ahead of the instances we started
+		if (event.getTimestamp() - startedTimestamp > SampleAppl.CONSENSUS_LOOKAHEAD) {
+			evictedProposals++;
+			return;
+		}
+
+		Instance instance = instances.get(event.getTimestamp());
+
+		// Ignore events of instances that are already decided here
+		if (instance != null && instance.decided) {
+			evictedProposals++;
 			return;
 		}
 		
-		// Ignore events of the previous phase
-		if (event.getTimestamp() == startedTimestamp 
-				&& event.getPhaseTimestamp() == phaseTimestamp
-					&& event.getPhase() == PHASE_1 && currentPhase == PHASE_2) {
+		// Ignore events of rounds we already left
+		if (instance != null
+				&& event.getPhaseTimestamp() < instance.phaseTimestamp) {
+			evictedProposals++;
 			return;
 		}
 
-		proposalQueue.add(event);
+		QuorumTally quorum = proposals.add(event.getTimestamp(),
+				event.getPhaseTimestamp(), event.getPhase(),
+				event.getProcess(), event.getValue());
+
+		// Events of the previous phase are only kept for the coin, which
+		// then tosses among more values
+		if (instance != null 
+				&& event.getPhaseTimestamp() == instance.phaseTimestamp
+					&& event.getPhase() == PHASE_1 
+					&& instance.currentPhase == PHASE_2) {
+			return;
+		}
 
-		// Check the phase for the Proposal
+		// Duplicated proposals are ignored
+		if (quorum == null) {
+			return;
+		}
+
+		// Proposals of instances not started yet wait for our own proposal,
+		// and proposals of later rounds wait for us to get there
+		if (instance == null
+				|| event.getPhaseTimestamp() != instance.phaseTimestamp) {
+			return;
+		}
+
+		// Check the phase for the Proposal. Phase 2 proposals may overtake
+		// the phase 1 ones on links that are not FIFO: they wait until we
+		// enter phase 2 ourselves, and our own phase 2 proposal counts them
 		if (event.getPhase() == PHASE_1) {
-			handleProposePhase1(event);
-		} else if (event.getPhase() == PHASE_2) {
-			handleProposePhase2(event);
+			handleProposePhase1(instance, event, quorum);
+		} else if (event.getPhase() == PHASE_2
+				&& instance.currentPhase == PHASE_2) {
+			handleProposePhase2(instance, event, quorum);
 		}
 	}
 
-	private void handleProposePhase1(ProposeEvent event)
-			throws AppiaEventException {
+	private void handleProposePhase1(Instance instance, ProposeEvent event,
+			QuorumTally quorum) throws AppiaEventException {
 
-		System.err.printf("RC: (PHASE 1) Received incoming ProposeEvent: %d @%d, from %d\n",
-			event.getValue(), event.getTimestamp(), event.getProcess());
+		System.err.printf("RC: (PHASE 1) Received incoming ProposeEvent: %s @%d, from %d\n",
+			Arrays.toString(event.getValue()), event.getTimestamp(), event.getProcess());
 		
-		// First we must wait for a quorum
-		Map<Integer, ProposeEvent> quorum = getQuorum(PHASE_1);
+		if (fastPath && instance.phaseTimestamp == 0) {
+			handleFastRound(instance, quorum);
+			return;
+		}
 
 		// When we get a majority, check if the values are identical
 		if (quorum.size() > processes.getSize() / 2) {
 
-			ProposeEvent firstProposal = quorum.values().iterator().next();
-			int firstValue = firstProposal.getValue();
-			boolean identicalValues = true;
-			for (ProposeEvent proposed : quorum.values()) {
-				if (proposed.getValue() != firstValue) {
-					identicalValues = false;
-					break;
-				}
-			}
+			int[] firstValue = quorum.getFirstValue();
+			boolean identicalValues = quorum.isIdentical();
 
 			// If the values are identical, broadcast this v* 
 			// value and enter phase 2. Otherwise broadcast a 
 			// default value and enter phase 2
-			int broadcastedValue;
+			int[] broadcastedValue;
 
 			if (identicalValues) {
 				System.err
-						.printf("RC: (PHASE 1) A quorum was found with identical values (%d)\n",
-								firstValue);
+						.printf("RC: (PHASE 1) A quorum was found with identical values (%s)\n",
+								Arrays.toString(firstValue));
 				broadcastedValue = firstValue;
 			} else {
 				System.err
-						.printf("RC: (PHASE 1) A quorum was found with different values: [");
-				for (ProposeEvent proposed : quorum.values()) {
-					System.err.printf("%d, ", proposed.getValue());
-				}
-				System.err.println("]");
+						.println("RC: (PHASE 1) A quorum was found with different values: "
+								+ quorum);
 
-				// TODO: add a flag instead
-				broadcastedValue = -1;
+				broadcastedValue = null;
 			}
 			
-			currentPhase = PHASE_2;
+			instance.currentPhase = PHASE_2;
 			
 			// Send the broadcast for phase 2
-			sendProposal(this, event.getChannel(), PHASE_2, broadcastedValue,
-					Direction.DOWN);
+			sendProposal(instance, PHASE_2, broadcastedValue);
 		}
 	}
 
-	private void handleProposePhase2(ProposeEvent event)
+	private void handleFastRound(Instance instance, QuorumTally quorum)
 			throws AppiaEventException {
 
-		System.err.printf("RC: (PHASE 2) Received incoming ProposeEvent: %d @%d, from %d\n",
-				event.getValue(), event.getTimestamp(), event.getProcess());
-		
-		// First we must wait for a quorum
-		Map<Integer, ProposeEvent> quorum = getQuorum(PHASE_2);
+		int n = processes.getSize();
+		int f = SampleAppl.TOLERATED_FAILURES;
+
+		if (quorum.size() < n - f)
+			return;
+
+		if (quorum.isIdentical()) {
+			System.err.println("RC: (FAST) deciding "
+					+ Arrays.toString(quorum.getFirstValue()));
+
+			fastDecisions++;
+			nextRound(instance);
+			sendDecision(instance, quorum.getFirstValue());
+			return;
+		}
+
+		// A value decided by someone else is proposed by at least n - 2f
+		// members of any quorum, and no other value can be
+		int[] adopted = instance.proposal;
+		for (int p = quorum.nextMember(0); p != -1; p = quorum.nextMember(p + 1)) {
+			int count = 0;
+			for (int q = p; q != -1; q = quorum.nextMember(q + 1)) {
+				if (Arrays.equals(quorum.getValue(p), quorum.getValue(q)))
+					count++;
+			}
+			if (count >= n - 2 * f) {
+				adopted = quorum.getValue(p);
+				break;
+			}
+		}
+
+		System.err.println("RC: (FAST) starting round 1 with "
+				+ Arrays.toString(adopted));
+
+		nextRound(instance);
+		sendProposal(instance, PHASE_1, adopted);
+	}
+
+	private void handleProposePhase2(Instance instance, ProposeEvent event,
+			QuorumTally quorum) throws AppiaEventException {
+
+		System.err.printf("RC: (PHASE 2) Received incoming ProposeEvent: %s @%d, from %d\n",
+				Arrays.toString(event.getValue()), event.getTimestamp(), event.getProcess());
 		
 		// When we get a quorum, check if the values are identical
-		if (quorum.size() == processes.getSize()
+		if (quorum.size() >= processes.getSize()
 				- SampleAppl.TOLERATED_FAILURES) {
 
-			System.err.print("RC: Got a quorum for phase 2 [");
-			for (ProposeEvent proposed : quorum.values()) {
-				System.err.print(proposed.getValue() + ", ");
-			}
-			System.err.println("]");
+			System.err.println("RC: Got a quorum for phase 2 " + quorum);
 
 			// Try to find f+1 values of v*
 			int count = 0;
-			int vStar = -1;
+			int[] vStar = null;
 
-			for (ProposeEvent proposed : quorum.values()) {
-				if (proposed.getValue() != -1) {
-					vStar = proposed.getValue();
+			for (int p = quorum.nextMember(0); p != -1; p = quorum.nextMember(p + 1)) {
+				if (quorum.getValue(p) != null) {
+					vStar = quorum.getValue(p);
 					count++;
 				}
 			}
@@ -304,57 +608,45 @@ public class ConsensusSession extends Session {
 				// Found f+1 processes proposing v*, _reliable_ broadcast
 				// and decide
 
-				System.err.println("RC: (PHASE 2) starting decide with " + vStar);
-				
-				clearQuorums();
+				System.err.println("RC: (PHASE 2) starting decide with "
+						+ Arrays.toString(vStar));
 				
-				phaseTimestamp++;
-				currentPhase = PHASE_1;
+				nextRound(instance);
 				
-				sendDecision(this, event.getChannel(), PHASE_DECIDE, vStar,
-						Direction.DOWN);
+				sendDecision(instance, vStar);
 
 			} else if (count > 0) {
 				// Start new round with v*
 
-				System.err.println("RC: (PHASE 2) starting phase 1 with (star) " + vStar);
+				System.err.println("RC: (PHASE 2) starting phase 1 with (star) "
+						+ Arrays.toString(vStar));
 				
-				clearQuorums();
+				nextRound(instance);
 				
-				phaseTimestamp++;
-				currentPhase = PHASE_1;
-				
-				sendProposal(this, event.getChannel(), PHASE_1, vStar,
-						Direction.DOWN);
+				sendProposal(instance, PHASE_1, vStar);
 
 			} else {
 				// Start new round with coin toss
-				// Pick a random value from the first quorum
-
-				Map<Integer, ProposeEvent> firstQuorum = getQuorum(PHASE_1);
-				boolean foundProposal = false;
-				int randomValue = firstQuorum.values().iterator().next().getValue();
-
-				while (!foundProposal) {
-					int randomIndex = (new Random()).nextInt()
-							% firstQuorum.size();
-					if (firstQuorum.containsKey(randomIndex)) {
-						ProposeEvent randomProposal = (ProposeEvent) firstQuorum
-								.get(randomIndex);
-						randomValue = randomProposal.getValue();
-						foundProposal = true;
-					}
+				// Pick a value from the first quorum
+
+				QuorumTally firstQuorum = proposals.get(instance.timestamp,
+						instance.phaseTimestamp, PHASE_1);
+				int[] randomValue;
+				if (firstQuorum == null || firstQuorum.size() == 0) {
+					// Nothing to toss among, keep our own value
+					randomValue = instance.proposal;
+				} else {
+					randomValue = coin.toss(instance.timestamp,
+							instance.phaseTimestamp, firstQuorum);
 				}
+				coinTosses++;
 
-				System.err.println("RC: (PHASE 2) starting phase 1 with (random) " + randomValue);
+				System.err.println("RC: (PHASE 2) starting phase 1 with (random) "
+						+ Arrays.toString(randomValue));
 
-				clearQuorums();
-				
-				phaseTimestamp++;
-				currentPhase = PHASE_1;
+				nextRound(instance);
 				
-				sendProposal(this, event.getChannel(), PHASE_1, randomValue,
-						Direction.DOWN);
+				sendProposal(instance, PHASE_1, randomValue);
 			}
 		}
 	}
@@ -363,69 +655,39 @@ public class ConsensusSession extends Session {
 	 * Utils
 	 */
 
-	private Map<Integer, ProposeEvent> getQuorum(int phase) {
-		Map<Integer, ProposeEvent> quorum = new HashMap<Integer, ProposeEvent>();
-		
-		for (ProposeEvent oldProposal : proposalQueue) {
-			// Same phase
-			if (oldProposal.getPhase() != phase)
-				continue;
-			
-			// Same timestamp as our value
-			if (oldProposal.getTimestamp() != startedTimestamp)
-				continue;
-			
-			// Same phase timestamp as our phase's
-			if (oldProposal.getPhaseTimestamp() != phaseTimestamp)
-				continue;
-			
-			// Distinct processes in the quorum
-			quorum.put(oldProposal.getProcess(), oldProposal);
-		}
-		
-		return quorum;
-	}
+	private void nextRound(Instance instance) {
+		evictedProposals += proposals.evictRound(instance.timestamp,
+				instance.phaseTimestamp);
 
-	private void clearQuorums() {
-		clearQuorum(getQuorum(PHASE_1));
-		clearQuorum(getQuorum(PHASE_2));
-	}
-	
-	private void clearQuorum(Map<Integer, ProposeEvent> quorum) {
-		// Remove members of the quorum
-		for (ProposeEvent quorumMember : quorum.values()) {
-			proposalQueue.remove(quorumMember);
-		}
+		instance.phaseTimestamp++;
+		instance.currentPhase = PHASE_1;
+		rounds++;
 	}
 
-	private void sendProposal(Session source, Channel channel,
-			int phase, int value, int dir) throws AppiaEventException {
+	private void sendProposal(Instance instance, int phase, int[] value)
+			throws AppiaEventException {
 
 		ProposeEvent proposal = new ProposeEvent();
 		Message msg = proposal.getMessage();
-		msg.pushInt(phase);
-		msg.pushInt(value);
-		msg.pushInt(startedTimestamp);
-		msg.pushInt(phaseTimestamp);
+		ConsensusCodec.push(msg, new int[] { instance.phaseTimestamp,
+				instance.timestamp, phase }, value);
 
-		proposal.setSourceSession(source);
+		proposal.setSourceSession(this);
 		proposal.setChannel(channel);
-		proposal.setDir(dir);
+		proposal.setDir(Direction.DOWN);
 
 		proposal.init();
 		proposal.go();
 	}
 
-	private void sendDecision(Session session, Channel channel,
-			int phase, int vStar, int down) throws AppiaEventException {
+	private void sendDecision(Instance instance, int[] vStar)
+			throws AppiaEventException {
 
 		DecideEvent decision = new DecideEvent();
 		Message msg = decision.getMessage();
-		msg.pushInt(phase);
-		msg.pushInt(vStar);
-		msg.pushInt(startedTimestamp);
+		ConsensusCodec.push(msg, new int[] { instance.timestamp }, vStar);
 
-		decision.setSourceSession(session);
+		decision.setSourceSession(this);
 		decision.setChannel(channel);
 		decision.setDir(Direction.DOWN);
 
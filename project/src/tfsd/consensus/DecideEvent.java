@@ -45,7 +45,7 @@ import net.sf.appia.core.events.SendableEvent;
 public class DecideEvent extends SendableEvent {
 	
 	private int timestamp;
-	private int value;
+	private int[] value;
 	
 	/**
 	 * Default constructor.
@@ -67,11 +67,11 @@ public class DecideEvent extends SendableEvent {
 		this.timestamp = timestamp;
 	}
 
-	public int getValue() {
+	public int[] getValue() {
 		return value;
 	}
 
-	public void setValue(int value) {
+	public void setValue(int[] value) {
 		this.value = value;
 	}
 }
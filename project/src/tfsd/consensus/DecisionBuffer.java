@@ -0,0 +1,140 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+/**
+ * Decisions received for instances that were not started locally yet.
+ * <br>
+ * Only the timestamp and the decided values are kept, in a ring indexed by
+ * timestamp. The ring covers the instances from the last started one on.
+ * It starts small and doubles when a decision falls beyond it, up to a
+ * ceiling; decisions further ahead than the ceiling are refused.
+ * 
+ */
+public class DecisionBuffer {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int ceiling;
+	private int[] timestamps;
+	private int[][] values;
+	private int size;
+
+	/**
+	 * Builds an empty buffer.
+	 * 
+	 * @param ceiling
+	 *            how many instances ahead of the last started one may be
+	 *            buffered
+	 */
+	public DecisionBuffer(int ceiling) {
+		this.ceiling = Math.max(ceiling, 1);
+		timestamps = new int[Math.min(this.ceiling, INITIAL_CAPACITY)];
+		values = new int[timestamps.length][];
+		size = 0;
+	}
+
+	/**
+	 * Buffers a decision.
+	 * 
+	 * @param started
+	 *            the timestamp of the last started instance
+	 * @return false if the instance is already started or too far ahead to
+	 *         be buffered
+	 */
+	public boolean put(int started, int timestamp, int[] value) {
+		long distance = (long) timestamp - started;
+		if (distance <= 0 || distance > ceiling)
+			return false;
+
+		if (distance > timestamps.length)
+			grow(started, (int) distance);
+
+		int slot = timestamp % timestamps.length;
+		if (timestamps[slot] != timestamp)
+			size++;
+		timestamps[slot] = timestamp;
+		values[slot] = value;
+		return true;
+	}
+
+	/**
+	 * Makes room for the instances up to a distance ahead of the last
+	 * started one, which is at most the ceiling. Buffered decisions all lie
+	 * after it, so they keep distinct slots in the larger ring.
+	 */
+	private void grow(int started, int distance) {
+		long capacity = timestamps.length;
+		while (capacity < distance)
+			capacity *= 2;
+		capacity = Math.min(capacity, ceiling);
+
+		int[] oldTimestamps = timestamps;
+		int[][] oldValues = values;
+		timestamps = new int[(int) capacity];
+		values = new int[timestamps.length][];
+		size = 0;
+		for (int i = 0; i < oldTimestamps.length; i++) {
+			if (oldTimestamps[i] > started) {
+				int slot = oldTimestamps[i] % timestamps.length;
+				timestamps[slot] = oldTimestamps[i];
+				values[slot] = oldValues[i];
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * Is there a decision buffered for the timestamp.
+	 */
+	public boolean contains(int timestamp) {
+		return timestamps[timestamp % timestamps.length] == timestamp;
+	}
+
+	/**
+	 * Removes a buffered decision.
+	 * 
+	 * @return the decided value
+	 */
+	public int[] take(int timestamp) {
+		int slot = timestamp % timestamps.length;
+		int[] value = values[slot];
+		timestamps[slot] = 0;
+		values[slot] = null;
+		size--;
+		return value;
+	}
+
+	/**
+	 * Gets the number of buffered decisions.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Unprocessed proposals of the consensus protocol, indexed by
+ * (timestamp, phaseTimestamp, phase).
+ * 
+ */
+public class ProposalStore {
+
+	private final int processes;
+	private final TreeMap<Integer, Map<Integer, QuorumTally>> tallies;
+	private int size;
+
+	/**
+	 * Builds an empty store.
+	 * 
+	 * @param processes
+	 *            the number of processes in the group
+	 */
+	public ProposalStore(int processes) {
+		this.processes = processes;
+		tallies = new TreeMap<Integer, Map<Integer, QuorumTally>>();
+		size = 0;
+	}
+
+	private static int key(int phaseTimestamp, int phase) {
+		return (phaseTimestamp << 2) | phase;
+	}
+
+	/**
+	 * Stores a proposal.
+	 * 
+	 * @return the tally the proposal was added to, or null if the process
+	 *         had already proposed for this triple
+	 */
+	public QuorumTally add(int timestamp, int phaseTimestamp, int phase,
+			int process, int[] value) {
+		Map<Integer, QuorumTally> rounds = tallies.get(timestamp);
+		if (rounds == null) {
+			rounds = new HashMap<Integer, QuorumTally>();
+			tallies.put(timestamp, rounds);
+		}
+
+		Integer key = key(phaseTimestamp, phase);
+		QuorumTally tally = rounds.get(key);
+		if (tally == null) {
+			tally = new QuorumTally(processes);
+			rounds.put(key, tally);
+		}
+
+		if (!tally.add(process, value))
+			return null;
+		size++;
+		return tally;
+	}
+
+	/**
+	 * Gets the proposals received for a triple.
+	 * 
+	 * @return the tally, or null if no proposal was received
+	 */
+	public QuorumTally get(int timestamp, int phaseTimestamp, int phase) {
+		Map<Integer, QuorumTally> rounds = tallies.get(timestamp);
+		if (rounds == null)
+			return null;
+		return rounds.get(key(phaseTimestamp, phase));
+	}
+
+	/**
+	 * Discards the proposals of both phases of a round.
+	 * 
+	 * @return the number of proposals discarded
+	 */
+	public int evictRound(int timestamp, int phaseTimestamp) {
+		Map<Integer, QuorumTally> rounds = tallies.get(timestamp);
+		if (rounds == null)
+			return 0;
+
+		int count = remove(rounds, key(phaseTimestamp, ConsensusSession.PHASE_1))
+				+ remove(rounds, key(phaseTimestamp, ConsensusSession.PHASE_2));
+		if (rounds.isEmpty())
+			tallies.remove(timestamp);
+		return count;
+	}
+
+	private int remove(Map<Integer, QuorumTally> rounds, int key) {
+		QuorumTally tally = rounds.remove(key);
+		if (tally == null)
+			return 0;
+		size -= tally.size();
+		return tally.size();
+	}
+
+	/**
+	 * Discards every proposal of an instance.
+	 * 
+	 * @return the number of proposals discarded
+	 */
+	public int evict(int timestamp) {
+		Map<Integer, QuorumTally> rounds = tallies.remove(timestamp);
+		return rounds == null ? 0 : evicted(rounds);
+	}
+
+	/**
+	 * Discards every proposal with a timestamp lower or equal to the given
+	 * one.
+	 * 
+	 * @return the number of proposals discarded
+	 */
+	public int evictThrough(int timestamp) {
+		NavigableMap<Integer, Map<Integer, QuorumTally>> head = tallies
+				.headMap(timestamp, true);
+		int count = 0;
+		for (Map<Integer, QuorumTally> rounds : head.values())
+			count += evicted(rounds);
+		head.clear();
+		return count;
+	}
+
+	private int evicted(Map<Integer, QuorumTally> rounds) {
+		int count = 0;
+		for (QuorumTally tally : rounds.values())
+			count += tally.size();
+		size -= count;
+		return count;
+	}
+
+	/**
+	 * Gets the number of proposals stored.
+	 */
+	public int size() {
+		return size;
+	}
+}
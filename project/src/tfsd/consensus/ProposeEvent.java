@@ -44,7 +44,7 @@ import net.sf.appia.core.events.SendableEvent;
  */
 public class ProposeEvent extends SendableEvent {
 
-	private int value;
+	private int[] value;
 	private int process;
 	private int timestamp;
 	private int phaseTimestamp;
@@ -65,11 +65,11 @@ public class ProposeEvent extends SendableEvent {
 		super(c, dir, s);
 	}
 
-	public int getValue() {
+	public int[] getValue() {
 		return value;
 	}
 
-	public void setValue(int value) {
+	public void setValue(int[] value) {
 		this.value = value;
 	}
 
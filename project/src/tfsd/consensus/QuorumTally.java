@@ -0,0 +1,147 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+import java.util.Arrays;
+
+/**
+ * Proposals received for one (timestamp, phaseTimestamp, phase) triple.
+ * <br>
+ * Keeps at most one value per process, indexed by the process number, so
+ * the size of the quorum and whether all its values are identical are
+ * known without walking the proposals.
+ * 
+ */
+public class QuorumTally {
+
+	private final long[] members;
+	private final int[][] values;
+	private int size;
+	private int[] firstValue;
+	private boolean identical;
+
+	/**
+	 * Builds an empty tally.
+	 * 
+	 * @param processes
+	 *            the number of processes in the group
+	 */
+	public QuorumTally(int processes) {
+		members = new long[(processes + 63) >>> 6];
+		values = new int[processes][];
+		size = 0;
+		identical = true;
+	}
+
+	/**
+	 * Adds the value proposed by a process.
+	 * 
+	 * @return false if the process was already part of the quorum
+	 */
+	public boolean add(int process, int[] value) {
+		if (contains(process))
+			return false;
+
+		members[process >>> 6] |= 1L << process;
+		values[process] = value;
+
+		if (size == 0)
+			firstValue = value;
+		else if (!Arrays.equals(value, firstValue))
+			identical = false;
+
+		size++;
+		return true;
+	}
+
+	/**
+	 * Is the process part of the quorum.
+	 */
+	public boolean contains(int process) {
+		if (process < 0 || process >= values.length)
+			return false;
+		return (members[process >>> 6] & (1L << process)) != 0;
+	}
+
+	/**
+	 * Gets the value proposed by a member of the quorum.
+	 */
+	public int[] getValue(int process) {
+		return values[process];
+	}
+
+	/**
+	 * Gets the value of the first proposal added to the quorum.
+	 */
+	public int[] getFirstValue() {
+		return firstValue;
+	}
+
+	/**
+	 * Gets the number of distinct processes in the quorum.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Are all the values in the quorum identical.
+	 */
+	public boolean isIdentical() {
+		return identical;
+	}
+
+	/**
+	 * Gets the first member of the quorum with a process number greater or
+	 * equal to the given one.
+	 * 
+	 * @return the process number, or -1 if there is none
+	 */
+	public int nextMember(int process) {
+		if (process >= values.length)
+			return -1;
+
+		int word = process >>> 6;
+		long bits = members[word] & (-1L << process);
+		while (true) {
+			if (bits != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			if (++word == members.length)
+				return -1;
+			bits = members[word];
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int p = nextMember(0); p != -1; p = nextMember(p + 1))
+			sb.append(Arrays.toString(values[p])).append(", ");
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.consensus;
+
+import java.util.Arrays;
+
+/**
+ * Coin that every process tosses the same way: the values are ranked by a
+ * hash seeded with the instance and the round only, and the value of the
+ * lowest rank in the quorum is adopted.
+ * <br>
+ * Processes draw the same value whenever their quorums contain the lowest
+ * ranked value proposed in the round. The quorum holds every phase 1
+ * proposal received until the phase 2 quorum was reached. Each of those
+ * proposals came before the phase 2 proposal of the same process, so the
+ * coin usually sees at least n - f values, and the ones missing are those
+ * of processes that did not reach phase 2 yet. A process whose quorum
+ * lacks that value draws another one, and the next round decides later.
+ * 
+ */
+public class SharedCoin implements Coin {
+
+	public int[] toss(int timestamp, int round, QuorumTally quorum) {
+		long seed = mix(((long) timestamp << 32) | round);
+
+		int[] chosen = null;
+		long best = 0;
+		for (int p = quorum.nextMember(0); p != -1; p = quorum.nextMember(p + 1)) {
+			int[] value = quorum.getValue(p);
+			long rank = mix(seed ^ Arrays.hashCode(value));
+			if (chosen == null || rank < best
+					|| (rank == best && compare(value, chosen) < 0)) {
+				chosen = value;
+				best = rank;
+			}
+		}
+		return chosen;
+	}
+
+	/**
+	 * Orders values lexicographically, for values of the same rank.
+	 */
+	private static int compare(int[] a, int[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			if (a[i] != b[i])
+				return a[i] < b[i] ? -1 : 1;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Spreads the bits of the seed (SplitMix64 finalizer).
+	 */
+	private static long mix(long seed) {
+		long z = seed + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.lrb;
+
+/**
+ * Sequence numbers delivered from one sender.
+ * <br>
+ * Every sequence number below the low watermark was delivered; the ones
+ * delivered out of order above it are kept in a circular bit set that
+ * starts at the watermark. In-order traffic only moves the watermark, so
+ * memory stays constant, and both lookups and insertions take constant
+ * time.
+ * 
+ */
+public class DeliveredWindow {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int lowWatermark;
+	private long[] words;
+	// Bit of the circular set holding the low watermark
+	private int head;
+	private int outOfOrder;
+
+	public DeliveredWindow() {
+		lowWatermark = 0;
+		words = new long[INITIAL_CAPACITY >>> 6];
+		head = 0;
+		outOfOrder = 0;
+	}
+
+	/**
+	 * Was the sequence number delivered.
+	 */
+	public boolean contains(int seqNumber) {
+		if (seqNumber < lowWatermark)
+			return true;
+		int offset = seqNumber - lowWatermark;
+		if (offset >= capacity())
+			return false;
+		return isSet(bit(offset));
+	}
+
+	/**
+	 * Records the delivery of a sequence number.
+	 * 
+	 * @return false if it was already delivered
+	 */
+	public boolean add(int seqNumber) {
+		if (seqNumber < lowWatermark)
+			return false;
+
+		int offset = seqNumber - lowWatermark;
+		if (offset >= capacity())
+			grow(offset + 1);
+
+		if (offset > 0) {
+			int bit = bit(offset);
+			if (isSet(bit))
+				return false;
+			words[bit >>> 6] |= 1L << bit;
+			outOfOrder++;
+			return true;
+		}
+
+		// Move the watermark over every contiguous delivery
+		advance();
+		while (isSet(head)) {
+			words[head >>> 6] &= ~(1L << head);
+			outOfOrder--;
+			advance();
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the first sequence number not delivered yet.
+	 */
+	public int getLowWatermark() {
+		return lowWatermark;
+	}
+
+	/**
+	 * Gets the number of sequence numbers delivered above the watermark.
+	 */
+	public int getOutOfOrder() {
+		return outOfOrder;
+	}
+
+	/**
+	 * Gets the number of sequence numbers above the watermark that can be
+	 * recorded without growing.
+	 */
+	public int capacity() {
+		return words.length << 6;
+	}
+
+	private void advance() {
+		lowWatermark++;
+		head = (head + 1) & (capacity() - 1);
+	}
+
+	private int bit(int offset) {
+		return (head + offset) & (capacity() - 1);
+	}
+
+	private boolean isSet(int bit) {
+		return (words[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	private void grow(int needed) {
+		int capacity = capacity();
+		while (capacity < needed)
+			capacity <<= 1;
+
+		// Unroll the circular set so the watermark is at bit 0
+		long[] grown = new long[capacity >>> 6];
+		for (int offset = 0; offset < capacity(); offset++) {
+			if (isSet(bit(offset)))
+				grown[offset >>> 6] |= 1L << offset;
+		}
+		words = grown;
+		head = 0;
+	}
+}
@@ -38,7 +38,6 @@ import net.sf.appia.core.events.SendableEvent;
 import net.sf.appia.core.events.channel.ChannelClose;
 import net.sf.appia.core.events.channel.ChannelInit;
 import tfsd.ProcessInitEvent;
-import tfsd.TokenTimer;
 
 /**
  * Layer of the Lazy Reliable Broadcast protocol.
@@ -49,8 +48,9 @@ public class LazyRBLayer extends Layer {
 
   public LazyRBLayer() {
     /* events that the protocol will create */
-    evProvide = new Class[1];
-      evProvide[0] = TokenTimer.class;
+    evProvide = new Class[2];
+    evProvide[0] = StabilityEvent.class;
+    evProvide[1] = StabilityTimer.class;
 
     /*
      * events that the protocol require to work. This is a subset of the
@@ -69,7 +69,7 @@ public class LazyRBLayer extends Layer {
     evAccept[2] = ChannelClose.class;
     evAccept[3] = ProcessInitEvent.class;
       evAccept[4] = Crash.class;
-      evAccept[5] = TokenTimer.class;
+    evAccept[5] = StabilityTimer.class;
   }
 
   /**
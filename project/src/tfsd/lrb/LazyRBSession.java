@@ -34,9 +34,9 @@ package tfsd.lrb;
 
 import java.net.SocketAddress;
 import java.security.cert.TrustAnchor;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import app.Tree;
 import net.sf.appia.core.*;
@@ -44,13 +44,17 @@ import net.sf.appia.core.events.SendableEvent;
 import net.sf.appia.core.events.channel.ChannelInit;
 import net.sf.appia.core.events.channel.Timer;
 import tfsd.ProcessInitEvent;
+import tfsd.SampleAppl;
 import tfsd.SampleProcess;
-import tfsd.TokenTimer;
 import tfsd.consensus.DecideEvent;
 import tfsd.consensus.ProposeEvent;
 
 /**
  * Session implementing the Lazy Reliable Broadcast protocol.
+ * <br>
+ * Every SampleAppl.RB_STABILITY_PERIOD milliseconds each process
+ * broadcasts its delivered watermarks. A message kept for retransmission
+ * is dropped once every correct process delivered it.
  * 
  * @author nuno
  * 
@@ -59,21 +63,21 @@ public class LazyRBSession extends Session {
 
 	private ProcessSet processes;
 	private int seqNumber;
-	// array of lists
-	private LinkedList<SendableEvent>[] from;
-	// List of MessageID objects
-	private List<MessageID> delivered;
-    public static boolean buffer = false;
-    private boolean canBuffer = false;
-    private ArrayList<SendableEvent> timedBuffer = new ArrayList<SendableEvent>();
+	// Messages of each sender kept for retransmission, by sequence number
+	private TreeMap<Integer, SendableEvent>[] from;
+	// Bytes of the messages kept for each sender
+	private long[] fromBytes;
+	// Sequence numbers delivered from each process
+	private DeliveredWindow[] delivered;
+	// Watermarks last announced by each process, per sender
+	private int[][] acked;
+	private int[] announced;
 
 	/**
 	 * @param layer
 	 */
 	public LazyRBSession(Layer layer) {
 		super(layer);
-		
-		delivered = new ArrayList<MessageID>();
 	}
 
 	/**
@@ -85,22 +89,21 @@ public class LazyRBSession extends Session {
 		// the elements of the group
 		if (event instanceof ChannelInit) {
 			handleChannelInit((ChannelInit) event);
+		} else if (event instanceof StabilityTimer) {
+			handleStabilityTimer((StabilityTimer) event);
+		} else if (event instanceof StabilityEvent) {
+			if (event.getDir() == Direction.UP)
+				handleStability((StabilityEvent) event);
 		} else if (event instanceof ProcessInitEvent) {
 			handleProcessInitEvent((ProcessInitEvent) event);
 
-		} else if (event instanceof TokenTimer){
-            canBuffer = false;
-            releaseEvents();
-            System.err.println("[LRB] Releasing the buffered events.");
-        }
-        else if (event instanceof DecideEvent) {
+		} else if (event instanceof DecideEvent) {
 			if (event.getDir() == Direction.DOWN) {
 				// UPON event from the above protocol (or application)
 				rbBroadcast((DecideEvent) event);
 			} else {
 				// UPON event from the bottom protocol (or perfect point2point
 				// links)
-                if(buffer==true) insertTimerEvent((DecideEvent) event);
 				bebDeliver((DecideEvent) event);
 			}
 
@@ -136,16 +139,15 @@ public class LazyRBSession extends Session {
 		} catch (AppiaEventException e) {
 			e.printStackTrace();
 		}
-	}
 
-    private void releaseEvents(){
-        if(!timedBuffer.isEmpty()){
-            for(int i = 0; i < timedBuffer.size(); i++){
-                bebDeliver(timedBuffer.get(i));
-            }
-            timedBuffer.clear();
-        }
-    }
+		try {
+			new StabilityTimer(SampleAppl.RB_STABILITY_PERIOD,
+					init.getChannel(), Direction.DOWN, this, EventQualifier.ON)
+					.go();
+		} catch (AppiaException e) {
+			e.printStackTrace();
+		}
+	}
 
 	/**
 	 * @param event
@@ -159,9 +161,17 @@ public class LazyRBSession extends Session {
 			e.printStackTrace();
 		}
 
-		from = new LinkedList[processes.getSize()];
+		from = new TreeMap[processes.getSize()];
 		for (int i = 0; i < from.length; i++)
-			from[i] = new LinkedList<SendableEvent>();
+			from[i] = new TreeMap<Integer, SendableEvent>();
+		fromBytes = new long[processes.getSize()];
+
+		acked = new int[processes.getSize()][processes.getSize()];
+		announced = new int[processes.getSize()];
+
+		delivered = new DeliveredWindow[processes.getSize()];
+		for (int i = 0; i < delivered.length; i++)
+			delivered[i] = new DeliveredWindow();
 	}
 
 	/**
@@ -175,22 +185,12 @@ public class LazyRBSession extends Session {
 		MessageID msgID = new MessageID(self.getProcessNumber(), seqNumber);
 		seqNumber++;
 		// System.out.println("RB: broadcasting message.");
-		event.getMessage().pushObject(msgID);
+		event.getMessage().pushLong(msgID.toLong());
 		// broadcast the message
 		bebBroadcast(event);
 	}
 
 
-    private void insertTimerEvent(SendableEvent event) {
-        try {
-            canBuffer = true;
-            new TokenTimer(1000, event.getChannel(), Direction.DOWN, this, EventQualifier.ON).go();
-        } catch (Exception e){
-            e.printStackTrace();
-    }
-
-    }
-
 	/**
 	 * Called when the lower protocol delivers a message.
 	 * 
@@ -198,14 +198,13 @@ public class LazyRBSession extends Session {
 	 */
 	private void bebDeliver(SendableEvent event) {
 		// System.out.println("RB: Received message from beb.");
-		MessageID msgID = (MessageID) event.getMessage().peekObject();
-        if(canBuffer) {
-            timedBuffer.add(event);
-            System.out.println("Buffering events!");
-        }
-        else if (!delivered.contains(msgID)) {
+		// Message.peekLong of Appia 4.1.2 mangles values wider than 32 bits,
+		// so the header is popped and pushed back instead
+		long id = event.getMessage().popLong();
+		event.getMessage().pushLong(id);
+		MessageID msgID = MessageID.fromLong(id);
+		if (delivered[msgID.process].add(msgID.seqNumber)) {
 			// System.out.println("RB: message is new.");
-			delivered.add(msgID);
 			// removes the header from the message (sender and seqNumber) and
 			// delivers
 			// it
@@ -216,21 +215,19 @@ public class LazyRBSession extends Session {
 				e.printStackTrace();
 				return;
 			}
-			event.getMessage().popObject();
+			event.getMessage().popLong();
 			try {
 				event.go();
 			} catch (AppiaEventException e) {
 				e.printStackTrace();
 			}
 			// adds message to the "from" array
-			SampleProcess pi = processes
-					.getProcess((SocketAddress) event.source);
-			int piNumber = pi.getProcessNumber();
-			from[piNumber].add(cloned);
+			from[msgID.process].put(msgID.seqNumber, cloned);
+			fromBytes[msgID.process] += cloned.getMessage().length();
 			/*
 			 * resends the message if the source is no longer correct
 			 */
-			if (!pi.isCorrect()) {
+			if (!processes.isCorrect(msgID.process)) {
 				SendableEvent retransmission = null;
 
 				try {
@@ -276,11 +273,93 @@ public class LazyRBSession extends Session {
 		}
 
 		// changes the state of the process to "failed"
-		processes.getProcess(pi).setCorrect(false);
+		processes.setCorrect(pi, false);
 
 		// resends the messages of the failed process
-		for (SendableEvent event : from[pi])
+		for (SendableEvent event : from[pi].values())
 			bebBroadcast(event);
 		from[pi].clear();
+		fromBytes[pi] = 0;
+
+		// the failed process no longer holds back stability
+		for (int sender = 0; sender < from.length; sender++)
+			collectStable(sender);
+	}
+
+	/**
+	 * Gets the number of messages of a sender kept for retransmission.
+	 */
+	public int getBufferedMessages(int sender) {
+		return from[sender].size();
+	}
+
+	/**
+	 * Gets the size of the messages of a sender kept for retransmission.
+	 */
+	public long getBufferedBytes(int sender) {
+		return fromBytes[sender];
+	}
+
+	/**
+	 * Broadcasts the delivered watermarks, if they moved since the last
+	 * time.
+	 * 
+	 * @param timer
+	 */
+	private void handleStabilityTimer(StabilityTimer timer) {
+		int[] watermarks = new int[delivered.length];
+		for (int sender = 0; sender < delivered.length; sender++)
+			watermarks[sender] = delivered[sender].getLowWatermark();
+
+		if (Arrays.equals(watermarks, announced))
+			return;
+		announced = watermarks;
+
+		StabilityEvent stability = new StabilityEvent();
+		for (int sender = watermarks.length - 1; sender >= 0; sender--)
+			stability.getMessage().pushInt(watermarks[sender]);
+		stability.setChannel(timer.getChannel());
+		bebBroadcast(stability);
+	}
+
+	/**
+	 * Called when some process announces its delivered watermarks.
+	 * 
+	 * @param event
+	 */
+	private void handleStability(StabilityEvent event) {
+		int[] watermarks = new int[from.length];
+		for (int sender = 0; sender < watermarks.length; sender++)
+			watermarks[sender] = event.getMessage().popInt();
+		event.setWatermarks(watermarks);
+
+		int pi = processes.getRank((SocketAddress) event.source);
+		// Ignore watermarks of processes outside the group
+		if (pi < 0)
+			return;
+		for (int sender = 0; sender < watermarks.length; sender++) {
+			acked[pi][sender] = Math.max(acked[pi][sender], watermarks[sender]);
+			collectStable(sender);
+		}
+	}
+
+	/**
+	 * Drops the messages of a sender that every correct process delivered.
+	 * 
+	 * @param sender
+	 */
+	private void collectStable(int sender) {
+		int stable = delivered[sender].getLowWatermark();
+		for (int pi = processes.nextCorrect(0); pi >= 0; pi = processes
+				.nextCorrect(pi + 1)) {
+			if (pi != processes.getSelfRank())
+				stable = Math.min(stable, acked[pi][sender]);
+		}
+
+		SortedMap<Integer, SendableEvent> stableMessages = from[sender]
+				.headMap(stable);
+		for (SendableEvent event : stableMessages.values())
+			fromBytes[sender] -= event.getMessage().length();
+		stableMessages.clear();
 	}
 }
@@ -47,6 +47,22 @@ public class MessageID implements Serializable {
     process = p;
     seqNumber = s;
   }
+
+  /**
+   * Creates the identifier packed by toLong.
+   */
+  public static MessageID fromLong(long id) {
+    return new MessageID((int) (id >>> 32), (int) id);
+  }
+
+  /**
+   * Packs the identifier in a long: the process in the high 32 bits and
+   * the sequence number in the low ones.
+   */
+  public long toLong() {
+    return ((long) process << 32) | (seqNumber & 0xFFFFFFFFL);
+  }
+
   public int hashCode() {
     return process ^ seqNumber;
   }
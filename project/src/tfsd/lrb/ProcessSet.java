@@ -34,18 +34,46 @@ package tfsd.lrb;
 
 import java.io.Serializable;
 import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
 
 import tfsd.SampleProcess;
 
 /**
  * A set of sample processes.
+ * <br>
+ * One set is shared by every session of a channel. Its state is an
+ * immutable View, replaced as a whole (copy on write) when a process is
+ * added or crashes, so a crash seen by one layer is seen by all of them.
+ * The rank of an address is found in a hash map, and the correct
+ * processes are kept in a bit mask.
  * 
  * @author nuno
  */
 public class ProcessSet implements Serializable {
   private static final long serialVersionUID = -8520712350015155147L;
 
-  SampleProcess[] processes;
+  /**
+   * Snapshot of the set, never changed once built.
+   */
+  private static final class View implements Serializable {
+    private static final long serialVersionUID = 2818476020415212315L;
+
+    final SampleProcess[] processes;
+    final Map<SocketAddress, Integer> ranks;
+    final long[] correct;
+    final int correctCount;
+
+    View(SampleProcess[] processes, Map<SocketAddress, Integer> ranks,
+        long[] correct, int correctCount) {
+      this.processes = processes;
+      this.ranks = ranks;
+      this.correct = correct;
+      this.correctCount = correctCount;
+    }
+  }
+
+  private volatile View view;
   private int self;
 
   /**
@@ -55,23 +83,24 @@ public class ProcessSet implements Serializable {
    *          number of processes.
    */
   public ProcessSet(int n) {
-    processes = new SampleProcess[n];
+    view = new View(new SampleProcess[n],
+        new HashMap<SocketAddress, Integer>(), new long[(n + 63) >>> 6], 0);
   }
 
   /**
    * 
    */
   public ProcessSet() {
-    processes = new SampleProcess[0];
+    this(0);
   }
 
   /**
-   * Gets an array with all processes.
+   * Gets an array with all processes. It must not be changed.
    * 
    * @return Array with all processes
    */
   public SampleProcess[] getAllProcesses() {
-    return processes;
+    return view.processes;
   }
 
   /**
@@ -80,7 +109,7 @@ public class ProcessSet implements Serializable {
    * @return number of processes
    */
   public int getSize() {
-    return processes.length;
+    return view.processes.length;
   }
 
   /**
@@ -91,29 +120,42 @@ public class ProcessSet implements Serializable {
    * @return the rank of the process
    */
   public int getRank(SocketAddress addr) {
-    for (int i = 0; i < processes.length; i++) {
-      if ((processes[i] != null) && processes[i].getSocketAddress().equals(addr))
-        return i;
-    }
-    return -1;
+    Integer rank = view.ranks.get(addr);
+    return rank == null ? -1 : rank.intValue();
   }
 
   /**
-   * Adds a process into the process set.
+   * Adds a process into the process set, as correct.
    * 
    * @param process
    *          the process to add.
    * @param pr
    *          the rank of the process.
    */
-  public void addProcess(SampleProcess process, int pr) {
-    if (pr >= processes.length) {
-      SampleProcess[] temp = new SampleProcess[processes.length + 1];
-      for (int i = 0; i < processes.length; i++)
-        temp[i] = processes[i];
-      processes = temp;
-    }
+  public synchronized void addProcess(SampleProcess process, int pr) {
+    View old = view;
+    int n = Math.max(old.processes.length, pr + 1);
+
+    SampleProcess[] processes = new SampleProcess[n];
+    System.arraycopy(old.processes, 0, processes, 0, old.processes.length);
+    SampleProcess replaced = processes[pr];
     processes[pr] = process;
+
+    Map<SocketAddress, Integer> ranks = new HashMap<SocketAddress, Integer>(
+        old.ranks);
+    if (replaced != null)
+      ranks.remove(replaced.getSocketAddress());
+    ranks.put(process.getSocketAddress(), pr);
+
+    long[] correct = new long[(n + 63) >>> 6];
+    System.arraycopy(old.correct, 0, correct, 0, old.correct.length);
+    int correctCount = old.correctCount;
+    if (!isSet(correct, pr)) {
+      correct[pr >>> 6] |= 1L << pr;
+      correctCount++;
+    }
+
+    view = new View(processes, ranks, correct, correctCount);
     if (process.isSelf())
       self = pr;
   }
@@ -126,8 +168,60 @@ public class ProcessSet implements Serializable {
    * @param correct
    *          true if the process is correct, false if the process crashed.
    */
-  public void setCorrect(int proc, boolean correct) {
-    processes[proc].setCorrect(correct);
+  public synchronized void setCorrect(int proc, boolean correct) {
+    View old = view;
+    if (isSet(old.correct, proc) == correct)
+      return;
+
+    long[] mask = old.correct.clone();
+    mask[proc >>> 6] ^= 1L << proc;
+    view = new View(old.processes, old.ranks, mask, old.correctCount
+        + (correct ? 1 : -1));
+  }
+
+  /**
+   * Is the process with rank "proc" correct.
+   * 
+   * @param proc
+   *          the process rank
+   * @return true if correct, false if it crashed
+   */
+  public boolean isCorrect(int proc) {
+    return isSet(view.correct, proc);
+  }
+
+  /**
+   * Gets the number of correct processes.
+   * 
+   * @return number of correct processes
+   */
+  public int getCorrectCount() {
+    return view.correctCount;
+  }
+
+  /**
+   * Gets the lowest rank of a correct process not below "from".
+   * 
+   * @param from
+   *          the first rank to look at
+   * @return the rank, or -1 if there is none
+   */
+  public int nextCorrect(int from) {
+    long[] mask = view.correct;
+    int word = from >>> 6;
+    if (word >= mask.length)
+      return -1;
+    long bits = mask[word] & (-1L << from);
+    while (bits == 0) {
+      if (++word == mask.length)
+        return -1;
+      bits = mask[word];
+    }
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  private static boolean isSet(long[] mask, int proc) {
+    return (mask[proc >>> 6] & (1L << proc)) != 0;
   }
 
   /**
@@ -138,7 +232,7 @@ public class ProcessSet implements Serializable {
    * @return the process
    */
   public SampleProcess getProcess(int i) {
-    return processes[i];
+    return view.processes[i];
   }
 
   /**
@@ -153,7 +247,7 @@ public class ProcessSet implements Serializable {
     if (i == -1)
       return null;
     else
-      return processes[i];
+      return view.processes[i];
   }
 
   /**
@@ -171,21 +265,7 @@ public class ProcessSet implements Serializable {
    * @return My process
    */
   public SampleProcess getSelfProcess() {
-    return processes[self];
-  }
-
-  /**
-   * Clones the process set.
-   * 
-   * @return a clone of the process set.
-   */
-  public ProcessSet cloneProcessSet() {
-    ProcessSet set = new ProcessSet(getSize());
-    SampleProcess[] procs = getAllProcesses();
-    for (int i = 0; i < procs.length; i++)
-      set.addProcess(procs[i].cloneProcess(), i);
-    set.self = self;
-    return set;
+    return view.processes[self];
   }
 
 }
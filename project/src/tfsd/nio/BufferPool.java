@@ -0,0 +1,91 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of one size.
+ * <br>
+ * Direct buffers are expensive to allocate and are only freed by the
+ * garbage collector, so the ones of closed connections are kept, up to a
+ * limit, for the next ones.
+ * 
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+
+	private final Queue<ByteBuffer> free;
+	private final AtomicInteger pooled;
+
+	/**
+	 * @param bufferSize
+	 *            capacity of every buffer
+	 * @param maxPooled
+	 *            most buffers kept while not in use
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		free = new ConcurrentLinkedQueue<ByteBuffer>();
+		pooled = new AtomicInteger();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Gets a cleared buffer.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back, it must not be used any more.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (pooled.incrementAndGet() <= maxPooled)
+			free.add(buffer);
+		else
+			pooled.decrementAndGet();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One TCP connection of the NIO transport.
+ * <br>
+ * Frames are sent on connections opened to the other processes, which
+ * start with the port the sender listens on. Connections accepted from
+ * them are only read, after that port tells which process is on the other
+ * end. Either way, a connection that breaks makes its process undelivered.
+ * <br>
+ * The queue of frames is filled by the Appia thread and emptied by the
+ * selector thread of the connection; everything else belongs to the
+ * selector thread.
+ * 
+ */
+class Connection {
+
+	// Most frames written by one call
+	static final int MAX_GATHER = 64;
+
+	final SocketChannel socket;
+	final SelectorLoop loop;
+	final boolean outgoing;
+
+	// Address the other process listens on, null until it is known
+	volatile InetSocketAddress peer;
+	volatile boolean closed;
+
+	final Queue<ByteBuffer> queue;
+	// Frames queued or being written
+	final AtomicInteger depth;
+	// The selector thread has been asked to write, or is writing
+	final AtomicBoolean writeRequested;
+
+	SelectionKey key;
+	boolean connected;
+	boolean handshaken;
+
+	ByteBuffer[] inflight;
+	int inflightCount;
+
+	ByteBuffer readBuffer;
+	// A frame bigger than the read buffer, being filled
+	byte[] pending;
+	int pendingFill;
+
+	Connection(SocketChannel socket, SelectorLoop loop, InetSocketAddress peer,
+			boolean outgoing) {
+		this.socket = socket;
+		this.loop = loop;
+		this.peer = peer;
+		this.outgoing = outgoing;
+		closed = false;
+		queue = new ConcurrentLinkedQueue<ByteBuffer>();
+		depth = new AtomicInteger();
+		writeRequested = new AtomicBoolean();
+		connected = false;
+		// The process on an outgoing connection is known from the start
+		handshaken = outgoing;
+		inflight = new ByteBuffer[MAX_GATHER];
+		inflightCount = 0;
+	}
+
+	/**
+	 * Queues a frame, called by the Appia thread.
+	 */
+	void enqueue(ByteBuffer frame) {
+		queue.add(frame);
+		depth.incrementAndGet();
+		if (writeRequested.compareAndSet(false, true))
+			loop.requestWrite(this);
+	}
+}
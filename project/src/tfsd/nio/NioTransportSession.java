@@ -0,0 +1,347 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import net.sf.appia.protocols.utils.HostUtils;
+import tfsd.EventFactory;
+import tfsd.SampleAppl;
+
+/**
+ * Session of a TCP transport on non-blocking sockets.
+ * <br>
+ * An event is sent as a frame: its length, the channel and the event
+ * class, then the message. The frame is built once and queued, shared, on
+ * the connection of every destination; SampleAppl.NIO_SELECTORS selector
+ * threads write the queues and read the frames coming in, which are
+ * inserted in their channel with asyncGo. Sockets use TCP_NODELAY unless
+ * SampleAppl.NIO_NODELAY is off.
+ * <br>
+ * As with TcpCompleteSession, a TcpUndeliveredEvent goes up when a process
+ * can not be connected to or its connection breaks, and a
+ * RegisterSocketEvent opens the server socket.
+ * 
+ */
+public class NioTransportSession extends Session {
+
+	// Direct buffer each connection reads into
+	private static final int READ_BUFFER = 64 * 1024;
+	private static final int POOLED_BUFFERS = 64;
+
+	private Map<String, Channel> channels;
+
+	// Outgoing connection to each process
+	private ConcurrentHashMap<InetSocketAddress, Connection> connections;
+
+	private BufferPool buffers;
+	private SelectorLoop[] loops;
+	private int nextLoop;
+	private boolean noDelay;
+
+	private ServerSocketChannel server;
+	private InetSocketAddress local;
+
+	/**
+	 * Builds a new NioTransportSession.
+	 * 
+	 * @param layer
+	 */
+	public NioTransportSession(Layer layer) {
+		super(layer);
+
+		channels = new ConcurrentHashMap<String, Channel>();
+		connections = new ConcurrentHashMap<InetSocketAddress, Connection>();
+		buffers = new BufferPool(READ_BUFFER, POOLED_BUFFERS);
+		noDelay = SampleAppl.NIO_NODELAY;
+	}
+
+	/**
+	 * Gets the number of frames waiting to be written to a process.
+	 */
+	public int getQueueDepth(SocketAddress peer) {
+		Connection c = connections.get(peer);
+		return c == null ? 0 : c.depth.get();
+	}
+
+	/**
+	 * Gets the number of frames waiting to be written to each connected
+	 * process.
+	 */
+	public Map<SocketAddress, Integer> getQueueDepths() {
+		Map<SocketAddress, Integer> depths = new HashMap<SocketAddress, Integer>();
+		for (Connection c : connections.values())
+			depths.put(c.peer, c.depth.get());
+		return depths;
+	}
+
+	boolean isNoDelay() {
+		return noDelay;
+	}
+
+	/**
+	 * Handles incoming events.
+	 * 
+	 * @see appia.Session#handle(appia.Event)
+	 */
+	public void handle(Event event) {
+		try {
+			if (event instanceof SendableEvent) {
+				if (event.getDir() == Direction.DOWN)
+					send((SendableEvent) event);
+				event.go();
+			} else if (event instanceof RegisterSocketEvent) {
+				handleRegisterSocket((RegisterSocketEvent) event);
+			} else if (event instanceof ChannelInit) {
+				Channel channel = ((ChannelInit) event).getChannel();
+				channels.put(channel.getChannelID(), channel);
+				event.go();
+			} else if (event instanceof ChannelClose) {
+				channels.remove(((ChannelClose) event).getChannel()
+						.getChannelID());
+				if (channels.isEmpty())
+					shutdown();
+				event.go();
+			} else {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens the server socket and starts the selector threads, then sends
+	 * the event back up, with the error set if the port could not be bound.
+	 */
+	private void handleRegisterSocket(RegisterSocketEvent event)
+			throws AppiaEventException {
+
+		if (server == null) {
+			InetAddress host = event.localHost;
+			if (host == null)
+				host = HostUtils.getLocalAddress();
+			try {
+				server = ServerSocketChannel.open();
+				server.configureBlocking(false);
+				server.socket().bind(new InetSocketAddress(host, event.port));
+				local = new InetSocketAddress(host, server.socket()
+						.getLocalPort());
+
+				loops = new SelectorLoop[Math.max(1, SampleAppl.NIO_SELECTORS)];
+				for (int i = 0; i < loops.length; i++) {
+					loops[i] = new SelectorLoop("NioSelector-" + i, this,
+							buffers);
+					loops[i].start();
+				}
+				loops[0].listen(server);
+				System.err.println("NIO: listening on " + local + " with "
+						+ loops.length + " selector threads");
+			} catch (IOException e) {
+				e.printStackTrace();
+				event.error = true;
+				event.setErrorCode(RegisterSocketEvent.RESOURCE_BUSY_ERROR);
+				event.setErrorDescription(e.getMessage());
+				server = null;
+			}
+		}
+
+		if (local != null) {
+			event.localHost = local.getAddress();
+			event.port = local.getPort();
+		}
+		event.setDir(Direction.invert(event.getDir()));
+		event.setSourceSession(this);
+		event.init();
+		event.go();
+	}
+
+	private void shutdown() {
+		if (loops != null) {
+			for (SelectorLoop loop : loops)
+				loop.shutdown();
+			loops = null;
+		}
+		if (server != null) {
+			try {
+				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			server = null;
+		}
+	}
+
+	/**
+	 * Queues the event on the connection of each destination.
+	 */
+	private void send(SendableEvent event) throws AppiaEventException {
+		Object[] destinations;
+		if (event.dest instanceof AppiaMulticast)
+			destinations = ((AppiaMulticast) event.dest).getDestinations();
+		else
+			destinations = new Object[] { event.dest };
+
+		ByteBuffer frame = null;
+		for (Object dest : destinations) {
+			Connection c = null;
+			if (dest instanceof InetSocketAddress && loops != null)
+				c = connection((InetSocketAddress) dest);
+			if (c == null) {
+				new TcpUndeliveredEvent(event.getChannel(), Direction.UP, this,
+						dest).go();
+				continue;
+			}
+
+			if (frame == null)
+				frame = encode(event);
+			c.enqueue(frame.duplicate());
+		}
+	}
+
+	/**
+	 * Builds the frame of an event, leaving its message as it was.
+	 */
+	private static ByteBuffer encode(SendableEvent event) {
+		Message msg = event.getMessage();
+		msg.pushString(event.getClass().getName());
+		msg.pushString(event.getChannel().getChannelID());
+		msg.pushInt(msg.length());
+		byte[] bytes = msg.toByteArray();
+		msg.popInt();
+		msg.popString();
+		msg.popString();
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Gets the connection to a process, opening it if there is none.
+	 * 
+	 * @return null if it could not be opened
+	 */
+	private Connection connection(InetSocketAddress dest) {
+		Connection c = connections.get(dest);
+		if (c != null && !c.closed)
+			return c;
+
+		try {
+			SocketChannel socket = SocketChannel.open();
+			socket.configureBlocking(false);
+			socket.socket().setTcpNoDelay(noDelay);
+			boolean connected = socket.connect(dest);
+
+			c = new Connection(socket, nextLoop(), dest, true);
+			c.connected = connected;
+			connections.put(dest, c);
+			c.loop.register(c);
+
+			// The other process learns which one this is
+			ByteBuffer handshake = ByteBuffer.allocate(4);
+			handshake.putInt(local.getPort());
+			handshake.flip();
+			c.enqueue(handshake);
+			return c;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	SelectorLoop nextLoop() {
+		SelectorLoop[] current = loops;
+		synchronized (this) {
+			nextLoop = (nextLoop + 1) % current.length;
+			return current[nextLoop];
+		}
+	}
+
+	/**
+	 * Inserts the event of a frame in its channel, called by the selector
+	 * threads.
+	 */
+	void deliver(InetSocketAddress peer, byte[] frame) {
+		Message msg = new Message(frame, 0, frame.length);
+		Channel channel = channels.get(msg.popString());
+		SendableEvent event = EventFactory.newEvent(msg.popString());
+		if (channel == null || !channel.isStarted() || event == null)
+			return;
+
+		event.setMessage(msg);
+		event.source = peer;
+		event.dest = local;
+		try {
+			event.asyncGo(channel, Direction.UP);
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reports the process of a broken connection, called by the selector
+	 * threads.
+	 */
+	void closed(Connection c) {
+		if (c.outgoing)
+			connections.remove(c.peer, c);
+		if (c.peer == null)
+			return;
+
+		for (Channel channel : channels.values()) {
+			if (!channel.isStarted())
+				continue;
+			try {
+				new TcpUndeliveredEvent(c.peer).asyncGo(channel, Direction.UP);
+			} catch (AppiaEventException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread that does the I/O of a share of the connections of the NIO
+ * transport, and accepts new ones if it owns the server socket.
+ * <br>
+ * A connection is woken up for writing only when its queue stops being
+ * empty; the frames queued meanwhile go out together in one gathering
+ * write. Incoming bytes are read into a pooled direct buffer and cut into
+ * frames, which go to NioTransportSession.
+ * 
+ */
+class SelectorLoop extends Thread {
+
+	private final NioTransportSession session;
+	private final BufferPool buffers;
+	private final Selector selector;
+
+	private final Queue<Connection> registrations;
+	private final Queue<Connection> writes;
+	private final Queue<ServerSocketChannel> servers;
+
+	private volatile boolean running;
+
+	SelectorLoop(String name, NioTransportSession session, BufferPool buffers)
+			throws IOException {
+		super(name);
+		setDaemon(true);
+		this.session = session;
+		this.buffers = buffers;
+		selector = Selector.open();
+		registrations = new ConcurrentLinkedQueue<Connection>();
+		writes = new ConcurrentLinkedQueue<Connection>();
+		servers = new ConcurrentLinkedQueue<ServerSocketChannel>();
+		running = true;
+	}
+
+	/**
+	 * Starts accepting connections on the server socket.
+	 */
+	void listen(ServerSocketChannel server) {
+		servers.add(server);
+		selector.wakeup();
+	}
+
+	/**
+	 * Starts the I/O of a new connection.
+	 */
+	void register(Connection c) {
+		registrations.add(c);
+		selector.wakeup();
+	}
+
+	/**
+	 * Makes the thread write the queue of the connection.
+	 */
+	void requestWrite(Connection c) {
+		writes.add(c);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops the thread and closes its connections.
+	 */
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				break;
+			}
+
+			ServerSocketChannel server;
+			while ((server = servers.poll()) != null) {
+				try {
+					server.register(selector, SelectionKey.OP_ACCEPT);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			Connection c;
+			while ((c = registrations.poll()) != null)
+				doRegister(c);
+			while ((c = writes.poll()) != null)
+				flush(c);
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid())
+					continue;
+
+				if (key.isAcceptable()) {
+					accept((ServerSocketChannel) key.channel());
+					continue;
+				}
+
+				c = (Connection) key.attachment();
+				try {
+					if (key.isConnectable())
+						finishConnect(c);
+					if (key.isValid() && key.isReadable())
+						read(c);
+					if (key.isValid() && key.isWritable())
+						flush(c);
+				} catch (IOException e) {
+					close(c);
+				}
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Connection)
+				close((Connection) key.attachment());
+			else
+				key.cancel();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void accept(ServerSocketChannel server) {
+		try {
+			SocketChannel socket = server.accept();
+			if (socket == null)
+				return;
+			socket.configureBlocking(false);
+			socket.socket().setTcpNoDelay(session.isNoDelay());
+			Connection c = new Connection(socket, session.nextLoop(), null,
+					false);
+			c.connected = true;
+			c.loop.register(c);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void doRegister(Connection c) {
+		if (c.closed)
+			return;
+		try {
+			c.readBuffer = buffers.acquire();
+			c.key = c.socket.register(selector,
+					c.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, c);
+			if (c.connected)
+				flush(c);
+		} catch (IOException e) {
+			close(c);
+		}
+	}
+
+	private void finishConnect(Connection c) throws IOException {
+		if (c.socket.finishConnect()) {
+			c.connected = true;
+			c.key.interestOps(SelectionKey.OP_READ);
+			flush(c);
+		}
+	}
+
+	/**
+	 * Writes as much of the queue as the socket takes.
+	 */
+	private void flush(Connection c) {
+		if (!c.connected || c.closed)
+			return;
+
+		try {
+			while (true) {
+				while (c.inflightCount < Connection.MAX_GATHER) {
+					ByteBuffer frame = c.queue.poll();
+					if (frame == null)
+						break;
+					c.inflight[c.inflightCount++] = frame;
+				}
+
+				if (c.inflightCount == 0) {
+					c.writeRequested.set(false);
+					// A frame may have come in before the flag was cleared
+					if (c.queue.isEmpty()
+							|| !c.writeRequested.compareAndSet(false, true)) {
+						c.key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					continue;
+				}
+
+				c.socket.write(c.inflight, 0, c.inflightCount);
+
+				int done = 0;
+				while (done < c.inflightCount && !c.inflight[done].hasRemaining())
+					done++;
+				if (done > 0) {
+					System.arraycopy(c.inflight, done, c.inflight, 0,
+							c.inflightCount - done);
+					Arrays.fill(c.inflight, c.inflightCount - done,
+							c.inflightCount, null);
+					c.inflightCount -= done;
+					c.depth.addAndGet(-done);
+				}
+
+				if (c.inflightCount > 0) {
+					// The socket buffer is full, wait until it drains
+					c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			close(c);
+		}
+	}
+
+	/**
+	 * Reads what is available and hands the complete frames over.
+	 */
+	private void read(Connection c) throws IOException {
+		ByteBuffer buffer = c.readBuffer;
+		if (c.socket.read(buffer) < 0) {
+			close(c);
+			return;
+		}
+		buffer.flip();
+
+		while (true) {
+			if (c.pending != null) {
+				int length = Math.min(buffer.remaining(), c.pending.length
+						- c.pendingFill);
+				buffer.get(c.pending, c.pendingFill, length);
+				c.pendingFill += length;
+				if (c.pendingFill < c.pending.length)
+					break;
+				session.deliver(c.peer, c.pending);
+				c.pending = null;
+			} else if (buffer.remaining() < 4) {
+				break;
+			} else if (!c.handshaken) {
+				c.peer = new InetSocketAddress(c.socket.socket().getInetAddress(),
+						buffer.getInt());
+				c.handshaken = true;
+			} else {
+				int length = buffer.getInt(buffer.position());
+				if (length < 0)
+					throw new IOException("Bad frame length " + length);
+				if (buffer.remaining() - 4 >= length) {
+					buffer.getInt();
+					byte[] frame = new byte[length];
+					buffer.get(frame);
+					session.deliver(c.peer, frame);
+				} else if (length + 4 > buffer.capacity()) {
+					buffer.getInt();
+					c.pending = new byte[length];
+					c.pendingFill = 0;
+				} else {
+					break;
+				}
+			}
+		}
+		buffer.compact();
+	}
+
+	private void close(Connection c) {
+		if (c.closed)
+			return;
+		c.closed = true;
+		if (c.key != null)
+			c.key.cancel();
+		try {
+			c.socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (c.readBuffer != null) {
+			buffers.release(c.readBuffer);
+			c.readBuffer = null;
+		}
+		session.closed(c);
+	}
+}
@@ -0,0 +1,579 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.paxos;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+import tfsd.DecisionListener;
+import tfsd.ProcessInitEvent;
+import tfsd.consensus.ConsensusCodec;
+import tfsd.consensus.QuorumTally;
+import tfsd.lrb.Crash;
+import tfsd.lrb.ProcessSet;
+
+/**
+ * Session implementing leader-based Multi-Paxos.
+ * <br>
+ * Like the randomized consensus, instance k decides among the k-th values
+ * proposed by the application of every process, and decisions are handed
+ * to the application in instance order.
+ * <br>
+ * The leader is the correct process with the lowest rank. It runs phase 1
+ * once when it takes over, for every instance not yet delivered, and then
+ * only phase 2 for each instance: every process broadcasts its proposals
+ * to the leader, the leader broadcasts an Accept for the first value it
+ * gets for an instance and a value is decided once a majority of the
+ * processes accepted it. Ballot 0 belongs to the first leader, which is
+ * promised by every process from the start.
+ * <br>
+ * Accepted values are kept until every correct process delivered their
+ * instance, as a new leader asks for the values of the instances it did
+ * not deliver. Each Accepted message carries the last instance its sender
+ * delivered.
+ * 
+ */
+public class PaxosSession extends Session {
+
+	private ProcessSet processes;
+	private DecisionListener listener;
+	private Channel channel;
+
+	// Proposer, only used while this process is the leader
+	private boolean leader;
+	private boolean prepared;
+	private int ballot;
+	private QuorumTally promises;
+	private TreeMap<Integer, int[]> recovered;
+	private Set<Integer> proposed;
+
+	// Values proposed for the instances that are not decided yet
+	private Map<Integer, Integer> requests;
+
+	// Acceptor: the highest ballot promised and the {ballot, value}
+	// accepted for each instance, and the last instance each process
+	// delivered
+	private int promised;
+	private TreeMap<Integer, int[]> accepted;
+	private int[] delivered;
+
+	// Learner
+	private Map<Integer, Learning> learning;
+	private Map<Integer, Integer> learned;
+
+	private int startedTimestamp;
+	private int decidedTimestamp;
+
+	/**
+	 * Acceptors that accepted a value for an instance in its highest ballot
+	 * seen so far.
+	 */
+	private static class Learning {
+
+		final int ballot;
+		final int value;
+		final QuorumTally acceptors;
+
+		Learning(int ballot, int value, int processes) {
+			this.ballot = ballot;
+			this.value = value;
+			acceptors = new QuorumTally(processes);
+		}
+	}
+
+	/**
+	 * Builds a new PaxosSession.
+	 * 
+	 * @param layer
+	 */
+	public PaxosSession(Layer layer) {
+		super(layer);
+
+		leader = false;
+		prepared = false;
+		ballot = 0;
+		recovered = new TreeMap<Integer, int[]>();
+		proposed = new HashSet<Integer>();
+		requests = new HashMap<Integer, Integer>();
+
+		promised = 0;
+		accepted = new TreeMap<Integer, int[]>();
+
+		learning = new HashMap<Integer, Learning>();
+		learned = new HashMap<Integer, Integer>();
+
+		startedTimestamp = 0;
+		decidedTimestamp = 0;
+	}
+
+	/**
+	 * Handles incoming events.
+	 * 
+	 * @see appia.Session#handle(appia.Event)
+	 */
+	public void handle(Event event) {
+
+		try {
+			if (event instanceof PaxosEvent) {
+				handlePaxosEvent((PaxosEvent) event);
+			} else if (event instanceof SendableEvent) {
+				handleSendable((SendableEvent) event);
+			} else if (event instanceof Crash) {
+				handleCrash((Crash) event);
+			} else if (event instanceof ProcessInitEvent) {
+				handleProcessInitEvent((ProcessInitEvent) event);
+			} else if (event instanceof ChannelInit) {
+				handleChannelInit((ChannelInit) event);
+			} else {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void handleChannelInit(ChannelInit init)
+			throws AppiaEventException {
+
+		channel = init.getChannel();
+		init.go();
+	}
+
+	private void handleProcessInitEvent(ProcessInitEvent event)
+			throws AppiaEventException {
+
+		processes = event.getProcessSet();
+		listener = event.getDecisionListener();
+		delivered = new int[processes.getSize()];
+
+		// The first leader owns ballot 0, which needs no phase 1
+		if (leaderRank() == processes.getSelfRank()) {
+			leader = true;
+			prepared = true;
+		}
+		event.go();
+	}
+
+	private void handleCrash(Crash crash) throws AppiaEventException {
+
+		int pi = crash.getCrashedProcess();
+		crash.go();
+
+		processes.setCorrect(pi, false);
+
+		// The crashed process no longer holds back accepted values
+		collectDelivered();
+
+		if (!leader && leaderRank() == processes.getSelfRank()) {
+			becomeLeader();
+		}
+	}
+
+	private void handleSendable(SendableEvent event)
+			throws AppiaEventException {
+
+		if (event.getDir() == Direction.UP) {
+			event.go();
+			return;
+		}
+
+		int proposed = event.getMessage().popInt();
+		System.err.println("Paxos: Received proposed value: " + proposed);
+
+		startedTimestamp++;
+
+		// Nothing to propose if the instance was decided already
+		if (!learned.containsKey(startedTimestamp)) {
+			sendForward(startedTimestamp, proposed);
+		}
+		deliver();
+	}
+
+	private void handlePaxosEvent(PaxosEvent event)
+			throws AppiaEventException {
+
+		if (event.getDir() == Direction.DOWN) {
+			event.go();
+			return;
+		}
+
+		event.setProcess(processes.getRank((SocketAddress) event.source));
+
+		// Ignore events of processes outside the group
+		if (event.getProcess() < 0) {
+			return;
+		}
+
+		if (event instanceof PrepareEvent) {
+			handlePrepare((PrepareEvent) event);
+		} else if (event instanceof PromiseEvent) {
+			handlePromise((PromiseEvent) event);
+		} else if (event instanceof AcceptEvent) {
+			handleAccept((AcceptEvent) event);
+		} else if (event instanceof AcceptedEvent) {
+			handleAccepted((AcceptedEvent) event);
+		} else if (event instanceof ForwardEvent) {
+			handleForward((ForwardEvent) event);
+		}
+	}
+
+	/*
+	 * Proposer
+	 */
+
+	private void becomeLeader() throws AppiaEventException {
+
+		leader = true;
+		prepared = false;
+
+		// The lowest ballot of ours above everything promised so far
+		int n = processes.getSize();
+		ballot = (promised / n) * n + processes.getSelfRank();
+		if (ballot <= promised)
+			ballot += n;
+
+		promises = new QuorumTally(n);
+		recovered.clear();
+		proposed.clear();
+
+		System.err.println("Paxos: taking over as leader with ballot "
+				+ ballot);
+
+		sendPrepare(ballot, decidedTimestamp + 1);
+	}
+
+	private void handlePromise(PromiseEvent event) throws AppiaEventException {
+
+		int[] header = new int[1];
+		int[] entries = ConsensusCodec.pop(event.getMessage(), header);
+		event.setBallot(header[0]);
+
+		// Entries are {instance, ballot, value} triples
+		int count = entries.length / 3;
+		int[] instances = new int[count];
+		int[] ballots = new int[count];
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			instances[i] = entries[3 * i];
+			ballots[i] = entries[3 * i + 1];
+			values[i] = entries[3 * i + 2];
+		}
+		event.setAccepted(instances, ballots, values);
+
+		if (!leader || prepared || event.getBallot() != ballot)
+			return;
+
+		if (!promises.add(event.getProcess(), null))
+			return;
+
+		// Keep the value accepted in the highest ballot of each instance
+		for (int i = 0; i < count; i++) {
+			int[] previous = recovered.get(instances[i]);
+			if (previous == null || ballots[i] > previous[0]) {
+				recovered.put(instances[i], new int[] { ballots[i], values[i] });
+			}
+		}
+
+		if (promises.size() > processes.getSize() / 2) {
+			prepared = true;
+			promises = null;
+
+			// Values that may have been decided must be proposed again
+			for (Map.Entry<Integer, int[]> entry : recovered.entrySet()) {
+				if (entry.getKey() > decidedTimestamp) {
+					requests.put(entry.getKey(), entry.getValue()[1]);
+				}
+			}
+			recovered.clear();
+
+			for (int instance : requests.keySet()) {
+				propose(instance);
+			}
+		}
+	}
+
+	private void handleForward(ForwardEvent event) throws AppiaEventException {
+
+		int[] header = new int[2];
+		ConsensusCodec.pop(event.getMessage(), header);
+		event.setInstance(header[0]);
+		event.setValue(header[1]);
+
+		int instance = event.getInstance();
+		if (instance <= decidedTimestamp || learned.containsKey(instance)
+				|| requests.containsKey(instance))
+			return;
+
+		requests.put(instance, event.getValue());
+
+		if (leader && prepared) {
+			propose(instance);
+		}
+	}
+
+	private void propose(int instance) throws AppiaEventException {
+
+		if (instance <= decidedTimestamp || learned.containsKey(instance)
+				|| !proposed.add(instance))
+			return;
+
+		sendAccept(ballot, instance, requests.get(instance));
+	}
+
+	/*
+	 * Acceptor
+	 */
+
+	private void handlePrepare(PrepareEvent event) throws AppiaEventException {
+
+		int[] header = new int[2];
+		ConsensusCodec.pop(event.getMessage(), header);
+		event.setBallot(header[0]);
+		event.setInstance(header[1]);
+
+		if (event.getBallot() < promised)
+			return;
+
+		promise(event.getBallot());
+
+		Map<Integer, int[]> tail = accepted.tailMap(event.getInstance());
+		int[] instances = new int[tail.size()];
+		int[] ballots = new int[tail.size()];
+		int[] values = new int[tail.size()];
+		int i = 0;
+		for (Map.Entry<Integer, int[]> entry : tail.entrySet()) {
+			instances[i] = entry.getKey();
+			ballots[i] = entry.getValue()[0];
+			values[i] = entry.getValue()[1];
+			i++;
+		}
+
+		sendPromise(event.getBallot(), instances, ballots, values);
+	}
+
+	private void handleAccept(AcceptEvent event) throws AppiaEventException {
+
+		popBallotHeader(event);
+
+		if (event.getBallot() < promised)
+			return;
+
+		promise(event.getBallot());
+
+		accepted.put(event.getInstance(), new int[] { event.getBallot(),
+				event.getValue() });
+
+		sendAccepted(event.getBallot(), event.getInstance(), event.getValue());
+	}
+
+	private void promise(int newBallot) {
+
+		promised = newBallot;
+
+		// A higher ballot means another process took over
+		if (leader && newBallot > ballot) {
+			System.err.println("Paxos: leadership lost to ballot "
+					+ newBallot);
+			leader = false;
+			prepared = false;
+			promises = null;
+		}
+	}
+
+	/*
+	 * Learner
+	 */
+
+	private void handleAccepted(AcceptedEvent event)
+			throws AppiaEventException {
+
+		int[] header = new int[4];
+		ConsensusCodec.pop(event.getMessage(), header);
+		event.setBallot(header[0]);
+		event.setInstance(header[1]);
+		event.setValue(header[2]);
+		event.setDelivered(header[3]);
+
+		int pi = event.getProcess();
+		if (event.getDelivered() > delivered[pi]) {
+			delivered[pi] = event.getDelivered();
+			collectDelivered();
+		}
+
+		int instance = event.getInstance();
+		if (instance <= decidedTimestamp || learned.containsKey(instance))
+			return;
+
+		Learning state = learning.get(instance);
+		if (state == null || event.getBallot() > state.ballot) {
+			state = new Learning(event.getBallot(), event.getValue(),
+					processes.getSize());
+			learning.put(instance, state);
+		} else if (event.getBallot() < state.ballot) {
+			return;
+		}
+
+		state.acceptors.add(event.getProcess(), null);
+
+		if (state.acceptors.size() > processes.getSize() / 2) {
+			learning.remove(instance);
+			requests.remove(instance);
+			proposed.remove(instance);
+			learned.put(instance, state.value);
+
+			deliver();
+		}
+	}
+
+	/**
+	 * Delivers the decided instances that the application already proposed
+	 * for, in order.
+	 */
+	private void deliver() {
+
+		while (decidedTimestamp < startedTimestamp) {
+			Integer value = learned.remove(decidedTimestamp + 1);
+			if (value == null)
+				break;
+
+			System.err.printf("*** DECIDING %d *** %d, %d\n", value,
+					decidedTimestamp + 1, startedTimestamp);
+
+			listener.decide(decidedTimestamp, value);
+			decidedTimestamp++;
+		}
+
+		delivered[processes.getSelfRank()] = decidedTimestamp;
+		collectDelivered();
+	}
+
+	/**
+	 * Drops the accepted values of the instances that every correct process
+	 * delivered.
+	 */
+	private void collectDelivered() {
+
+		int stable = decidedTimestamp;
+		for (int pi = processes.nextCorrect(0); pi >= 0; pi = processes
+				.nextCorrect(pi + 1)) {
+			stable = Math.min(stable, delivered[pi]);
+		}
+		accepted.headMap(stable, true).clear();
+	}
+
+	/*
+	 * Utils
+	 */
+
+	private int leaderRank() {
+		return processes.nextCorrect(0);
+	}
+
+	private static void popBallotHeader(PaxosEvent event) {
+		int[] header = new int[3];
+		ConsensusCodec.pop(event.getMessage(), header);
+		event.setBallot(header[0]);
+		event.setInstance(header[1]);
+		event.setValue(header[2]);
+	}
+
+	private void send(PaxosEvent event) throws AppiaEventException {
+
+		event.setSourceSession(this);
+		event.setChannel(channel);
+		event.setDir(Direction.DOWN);
+
+		event.init();
+		event.go();
+	}
+
+	private void sendPrepare(int ballot, int instance)
+			throws AppiaEventException {
+
+		PrepareEvent prepare = new PrepareEvent();
+		ConsensusCodec.push(prepare.getMessage(),
+				new int[] { ballot, instance }, null);
+		send(prepare);
+	}
+
+	private void sendPromise(int ballot, int[] instances, int[] ballots,
+			int[] values) throws AppiaEventException {
+
+		int[] entries = new int[3 * instances.length];
+		for (int i = 0; i < instances.length; i++) {
+			entries[3 * i] = instances[i];
+			entries[3 * i + 1] = ballots[i];
+			entries[3 * i + 2] = values[i];
+		}
+
+		PromiseEvent promise = new PromiseEvent();
+		ConsensusCodec.push(promise.getMessage(), new int[] { ballot },
+				entries);
+		send(promise);
+	}
+
+	private void sendAccept(int ballot, int instance, int value)
+			throws AppiaEventException {
+
+		AcceptEvent accept = new AcceptEvent();
+		ConsensusCodec.push(accept.getMessage(), new int[] { ballot,
+				instance, value }, null);
+		send(accept);
+	}
+
+	private void sendAccepted(int ballot, int instance, int value)
+			throws AppiaEventException {
+
+		AcceptedEvent acceptedEvent = new AcceptedEvent();
+		ConsensusCodec.push(acceptedEvent.getMessage(), new int[] { ballot,
+				instance, value, decidedTimestamp }, null);
+		send(acceptedEvent);
+	}
+
+	private void sendForward(int instance, int value)
+			throws AppiaEventException {
+
+		ForwardEvent forward = new ForwardEvent();
+		ConsensusCodec.push(forward.getMessage(),
+				new int[] { instance, value }, null);
+		send(forward);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+package tfsd.paxos;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Session;
+
+/**
+ * Phase 1b: an acceptor promised the ballot of a new leader. Carries every
+ * value the acceptor accepted for the instances the leader asked about,
+ * with the ballot it was accepted in.
+ * 
+ */
+public class PromiseEvent extends PaxosEvent {
+
+	private int[] instances;
+	private int[] ballots;
+	private int[] values;
+
+	/**
+	 * Default constructor.
+	 */
+	public PromiseEvent() {
+		super();
+	}
+
+	public PromiseEvent(Channel c, int dir, Session s)
+			throws AppiaEventException {
+		super(c, dir, s);
+	}
+
+	public int[] getInstances() {
+		return instances;
+	}
+
+	public int[] getBallots() {
+		return ballots;
+	}
+
+	public int[] getValues() {
+		return values;
+	}
+
+	public void setAccepted(int[] instances, int[] ballots, int[] values) {
+		this.instances = instances;
+		this.ballots = ballots;
+		this.values = values;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.pfd;
+
+/**
+ * Inter-arrival times of the heartbeats of one process, and the phi
+ * suspicion level derived from them.
+ * <br>
+ * The intervals are taken as normally distributed, with the mean and
+ * standard deviation of the last SIZE of them. Phi is -log10 of the
+ * probability that the next heartbeat arrives later than now: 1 means a
+ * 10% chance of a wrong suspicion, 2 means 1%, and so on. An acceptable
+ * pause is taken off the time since the last arrival first, for the gaps
+ * the sender leaves on purpose.
+ */
+public class ArrivalWindow {
+
+  private static final int SIZE = 100;
+
+  private final double minStdDev;
+  private final double acceptablePause;
+
+  private double[] intervals;
+  private int count;
+  private int next;
+  private double sum;
+  private double squares;
+  private double last;
+
+  /**
+   * @param expected
+   *          interval the heartbeats are sent at, the first estimate
+   * @param minStdDev
+   *          lower bound of the standard deviation, so that a steady
+   *          stream does not make a small delay look like a crash
+   * @param acceptablePause
+   *          longest gap expected on top of the usual intervals
+   * @param now
+   *          time of the first arrival
+   */
+  public ArrivalWindow(double expected, double minStdDev,
+      double acceptablePause, double now) {
+    this.minStdDev = minStdDev;
+    this.acceptablePause = acceptablePause;
+    intervals = new double[SIZE];
+    count = 0;
+    next = 0;
+    sum = 0;
+    squares = 0;
+    // Seeded as if the heartbeats had come about on time
+    add(expected - expected / 4);
+    add(expected + expected / 4);
+    last = now;
+  }
+
+  /**
+   * Records an arrival.
+   */
+  public void arrived(double now) {
+    add(now - last);
+    last = now;
+  }
+
+  private void add(double interval) {
+    if (count == SIZE) {
+      double old = intervals[next];
+      sum -= old;
+      squares -= old * old;
+    } else {
+      count++;
+    }
+    intervals[next] = interval;
+    next = (next + 1) % SIZE;
+    sum += interval;
+    squares += interval * interval;
+  }
+
+  public double getMean() {
+    return sum / count;
+  }
+
+  public double getStdDev() {
+    double mean = getMean();
+    double variance = Math.max(0, squares / count - mean * mean);
+    return Math.max(minStdDev, Math.sqrt(variance));
+  }
+
+  /**
+   * Gets the time since the last arrival.
+   */
+  public double getElapsed(double now) {
+    return now - last;
+  }
+
+  /**
+   * Gets the suspicion level at the given time.
+   */
+  public double phi(double now) {
+    double y = (getElapsed(now) - acceptablePause - getMean()) / getStdDev();
+    // Logistic approximation of the normal distribution
+    double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+    if (y > 0)
+      return -Math.log10(e / (1.0 + e));
+    return -Math.log10(1.0 - 1.0 / (1.0 + e));
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.pfd;
+
+import java.net.SocketAddress;
+
+import tfsd.*;
+import tfsd.lrb.Crash;
+import tfsd.lrb.ProcessSet;
+import net.sf.appia.core.*;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+
+/**
+ * Session implementing a heartbeat-based phi accrual failure detector.
+ * <br>
+ * Once started, every process broadcasts a heartbeat each
+ * SampleAppl.FD_HEARTBEAT_PERIOD milliseconds, and every message from a
+ * process counts as a heartbeat. With SampleAppl.FD_PIGGYBACK the
+ * heartbeat is left out when something else was broadcast in that period;
+ * it is turned off when broadcasts are relayed, as they stop coming with
+ * the relay. An ArrivalWindow per process turns the time since its last
+ * message into a phi suspicion level, and a Crash is sent, to the layers
+ * above and below, when it goes over SampleAppl.FD_PHI_THRESHOLD.
+ * <br>
+ * Every process is judged from the time the detector starts, as if it had
+ * just sent a message, so one that crashes before sending anything is
+ * suspected too; the detectors of all the processes should be started
+ * within a heartbeat period or so of each other.
+ * <br>
+ * Unlike TcpBasedPFDSession it finds crashed processes with no traffic
+ * going to them, but a process that stops for long enough is suspected
+ * as well.
+ */
+public class PhiAccrualFDSession extends Session {
+
+  private Channel channel;
+  private ProcessSet processes;
+  private boolean started;
+
+  private long period;
+  private double threshold;
+  private boolean piggyback;
+
+  // Created for every other process when the detector starts
+  private ArrivalWindow[] arrivals;
+  // Something was broadcast since the last heartbeat period
+  private boolean sent;
+
+  /**
+   * Constructor of the Session.
+   * 
+   * @param layer
+   *          parent layer.
+   */
+  public PhiAccrualFDSession(Layer layer) {
+    super(layer);
+    started = false;
+    period = SampleAppl.FD_HEARTBEAT_PERIOD;
+    threshold = SampleAppl.FD_PHI_THRESHOLD;
+    piggyback = SampleAppl.FD_PIGGYBACK;
+  }
+
+  public void handle(Event event) {
+    if (event instanceof HeartbeatTimer)
+      handleHeartbeatTimer((HeartbeatTimer) event);
+    else if (event instanceof SendableEvent)
+      handleSendable((SendableEvent) event);
+    else if (event instanceof ChannelInit)
+      handleChannelInit((ChannelInit) event);
+    else if (event instanceof ProcessInitEvent)
+      handleProcessInit((ProcessInitEvent) event);
+    else if (event instanceof PFDStartEvent)
+      handlePFDStart((PFDStartEvent) event);
+    else {
+      try {
+        event.go();
+      } catch (AppiaEventException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * @param init
+   */
+  private void handleChannelInit(ChannelInit init) {
+    channel = init.getChannel();
+    try {
+      init.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * @param event
+   */
+  private void handleProcessInit(ProcessInitEvent event) {
+    processes = event.getProcessSet();
+    arrivals = new ArrivalWindow[processes.getSize()];
+    try {
+      event.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * @param event
+   */
+  private void handlePFDStart(PFDStartEvent event) {
+    try {
+      event.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+    if (started)
+      return;
+    started = true;
+
+    // A process that never sends anything is judged from the start time.
+    // After a burst of traffic a heartbeat may take up to two periods
+    double now = now();
+    for (int pi = 0; pi < arrivals.length; pi++) {
+      if (pi != processes.getSelfRank())
+        arrivals[pi] = new ArrivalWindow(period, period / 4.0, period, now);
+    }
+
+    sendHeartbeat();
+    try {
+      new HeartbeatTimer(period, channel, Direction.DOWN, this,
+          EventQualifier.ON).go();
+    } catch (AppiaException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Every message is a heartbeat of the process that sent it.
+   * 
+   * @param event
+   */
+  private void handleSendable(SendableEvent event) {
+    if (event.getDir() == Direction.DOWN) {
+      sent = true;
+    } else if (started) {
+      int pi = processes.getRank((SocketAddress) event.source);
+      if (pi >= 0 && pi != processes.getSelfRank()
+          && processes.isCorrect(pi)) {
+        arrivals[pi].arrived(now());
+      }
+    }
+
+    if (event instanceof HeartbeatEvent && event.getDir() == Direction.UP)
+      return;
+    try {
+      event.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Sends a heartbeat if nothing else went out in the last period, and
+   * suspects the processes whose phi is over the threshold.
+   * 
+   * @param timer
+   */
+  private void handleHeartbeatTimer(HeartbeatTimer timer) {
+    if (!sent || !piggyback)
+      sendHeartbeat();
+    sent = false;
+
+    double now = now();
+    for (int pi = 0; pi < arrivals.length; pi++) {
+      if (arrivals[pi] == null || !processes.isCorrect(pi))
+        continue;
+
+      double phi = arrivals[pi].phi(now);
+      if (phi > threshold) {
+        System.err.println("PFD: suspecting process " + pi + ", phi "
+            + String.format("%.1f", phi) + " after "
+            + Math.round(arrivals[pi].getElapsed(now)) + " ms (mean "
+            + Math.round(arrivals[pi].getMean()) + " ms)");
+        notifyCrash(pi);
+      }
+    }
+  }
+
+  private void sendHeartbeat() {
+    try {
+      HeartbeatEvent heartbeat = new HeartbeatEvent(channel, Direction.DOWN,
+          this);
+      heartbeat.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Sends a crash notification of the process to the layers above and
+   * below.
+   * 
+   * @param pi
+   */
+  private void notifyCrash(int pi) {
+    processes.setCorrect(pi, false);
+
+    try {
+      Crash crash = new Crash(channel, Direction.UP, this, pi);
+      crash.go();
+      Crash down = new Crash(channel, Direction.DOWN, this, pi);
+      down.go();
+    } catch (AppiaEventException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // Milliseconds, with a fraction, from the clock of the channel timers
+  private double now() {
+    return channel.getTimeProvider().nanoTime() / 1e6;
+  }
+}
@@ -45,7 +45,7 @@ import java.net.SocketAddress;
  * Session implementing the TCP-Based Perfect Failure Detector.
  * <br>
  * When TCP signals a failed destination, a crash notification of 
- * implied process is sent.
+ * implied process is sent, to the layers above and below.
  *  
  * @author nuno
  */
@@ -129,13 +129,16 @@ public class TcpBasedPFDSession extends Session {
    */
   private void notifyCrash(TcpUndeliveredEvent event) {
     if (started) {
-      SampleProcess p = processes.getProcess((SocketAddress) event.getFailedAddress());
-      if (p.isCorrect()) {
-        p.setCorrect(false);
+      int pi = processes.getRank((SocketAddress) event.getFailedAddress());
+      if (pi >= 0 && processes.isCorrect(pi)) {
+        processes.setCorrect(pi, false);
 
         try{
-          Crash crash = new Crash(channel, Direction.UP, this, p.getProcessNumber());
+          Crash crash = new Crash(channel, Direction.UP, this, pi);
           crash.go();
+          // the layers below may route around the crashed process too
+          Crash down = new Crash(channel, Direction.DOWN, this, pi);
+          down.go();
         }catch(AppiaEventException e) {
           e.printStackTrace();
         }
@@ -0,0 +1,234 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.shm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.SocketAddress;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * A process on the same host, reached through a pair of rings.
+ * <br>
+ * A running process holds the lock of its lock file, which the system
+ * releases when it dies, so the lock tells whether the process is up.
+ * Frames go over TCP until it is up, and if some did, frames are kept
+ * until RingSwitchEvent came back from it, so that the ones written to the
+ * ring are not delivered before them.
+ * 
+ */
+class Peer {
+
+	static final int WAITING = 0;
+	static final int SWITCHING = 1;
+	static final int UP = 2;
+	static final int CRASHED = 3;
+
+	final SocketAddress address;
+	final Ring in;
+	final Ring out;
+	private final File lockFile;
+
+	volatile int state;
+
+	// Whether frames went over TCP while waiting, guarded by this
+	private boolean sentOverTcp;
+	// RingSwitchEvents not back yet, guarded by this
+	private int switching;
+
+	// Frames not written to the ring yet, guarded by this; the first one
+	// may be partly written
+	private final Queue<byte[]> overflow;
+	private int written;
+	private volatile boolean overflowing;
+
+	// Pieces of the frame being read, used by the reader only
+	private ByteArrayOutputStream pieces;
+
+	Peer(SocketAddress address, Ring in, Ring out, File lockFile) {
+		this.address = address;
+		this.in = in;
+		this.out = out;
+		this.lockFile = lockFile;
+		state = WAITING;
+		overflow = new LinkedList<byte[]>();
+	}
+
+	/**
+	 * Checks if the process has started when it was not up yet.
+	 */
+	synchronized void checkStarted() {
+		if (state == WAITING && isRunning())
+			state = sentOverTcp ? SWITCHING : UP;
+	}
+
+	/**
+	 * Tells whether the frames to the process go to the ring, checking if
+	 * it has started. Otherwise they go over TCP.
+	 */
+	synchronized boolean usesRing() {
+		checkStarted();
+		if (state == WAITING)
+			sentOverTcp = true;
+		return state == SWITCHING || state == UP;
+	}
+
+	/**
+	 * Checks whether the process holds its lock. The lock is taken shared,
+	 * so that processes checking at the same time do not see each other.
+	 */
+	boolean isRunning() {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(lockFile, "rw");
+			FileLock lock = file.getChannel().tryLock(0, Long.MAX_VALUE, true);
+			if (lock == null)
+				return true;
+			lock.release();
+			return false;
+		} catch (OverlappingFileLockException e) {
+			// Held by a session of this virtual machine
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a frame to the ring, or keeps it until there is room or the
+	 * link switched to the ring.
+	 */
+	synchronized void send(byte[] frame) {
+		if (state == CRASHED)
+			return;
+		if (state == SWITCHING || !overflow.isEmpty() || !write(frame)) {
+			overflow.add(frame);
+			overflowing = state == UP;
+		}
+	}
+
+	/**
+	 * Tells whether RingSwitchEvents must be sent, one on each of the
+	 * given number of channels, because the link is switching to the ring.
+	 */
+	synchronized boolean startSwitch(int channels) {
+		if (state != SWITCHING || switching > 0)
+			return false;
+		switching = channels;
+		return true;
+	}
+
+	/**
+	 * Takes a RingSwitchEvent that came back. Once all did, the frames
+	 * sent over TCP were delivered and the kept ones go to the ring.
+	 */
+	synchronized void switched() {
+		if (state != SWITCHING || switching == 0 || --switching > 0)
+			return;
+		state = UP;
+		overflowing = !overflow.isEmpty();
+	}
+
+	/**
+	 * Writes the frames kept while the ring was full.
+	 */
+	void flush() {
+		if (!overflowing)
+			return;
+		synchronized (this) {
+			while (!overflow.isEmpty() && write(overflow.peek()))
+				overflow.remove();
+			overflowing = !overflow.isEmpty();
+		}
+	}
+
+	/**
+	 * Writes what is left of a frame to the ring, in pieces if it is
+	 * longer than them.
+	 * 
+	 * @return false if the ring got full before the end of the frame
+	 */
+	private boolean write(byte[] frame) {
+		int pieceLength = out.pieceLength();
+		do {
+			int length = Math.min(frame.length - written, pieceLength);
+			boolean more = written + length < frame.length;
+			if (!out.offer(frame, written, length, more))
+				return false;
+			written += length;
+		} while (written < frame.length);
+		written = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the next frame from the ring, putting its pieces together,
+	 * called by the reader.
+	 * 
+	 * @return null if there is no whole frame yet
+	 */
+	byte[] receive() {
+		byte[] piece;
+		while ((piece = in.poll()) != null) {
+			if (pieces == null) {
+				if (!in.more())
+					return piece;
+				pieces = new ByteArrayOutputStream();
+			}
+			pieces.write(piece, 0, piece.length);
+			if (!in.more()) {
+				byte[] frame = pieces.toByteArray();
+				pieces = null;
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	synchronized void crashed() {
+		state = CRASHED;
+		overflow.clear();
+		written = 0;
+		overflowing = false;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Single-producer single-consumer ring of frames in a memory-mapped file.
+ * <br>
+ * The producer and the consumer are usually in different processes, each
+ * with its own Ring on the same file. The header holds the byte positions
+ * the consumer has read up to (head) and the producer has written up to
+ * (tail), on separate cache lines; each side only writes its own. A frame
+ * is stored as its length followed by its bytes, padded to 4 bytes, and
+ * may wrap around the end of the ring.
+ * 
+ */
+class Ring {
+
+	private static final int HEAD = 0;
+	private static final int TAIL = 64;
+	private static final int HEADER = 128;
+
+	// Written and read around the positions, so that frames are not
+	// reordered with them
+	private static volatile int barrier;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final ByteBuffer data;
+	private final int capacity;
+	private final int mask;
+
+	// Whether the last frame polled is followed by more pieces
+	private boolean more;
+
+	/**
+	 * Maps a ring, creating its file if needed.
+	 * 
+	 * @param capacity
+	 *            bytes for frames, a power of two
+	 */
+	Ring(File path, int capacity) throws IOException {
+		if (capacity < 8 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException(
+					"The ring capacity must be a power of two: " + capacity);
+		this.capacity = capacity;
+		mask = capacity - 1;
+
+		file = new RandomAccessFile(path, "rw");
+		map = file.getChannel().map(MapMode.READ_WRITE, 0, HEADER + capacity);
+		map.position(HEADER);
+		data = map.slice();
+	}
+
+	/**
+	 * Length of the pieces a frame too big for the ring is written in, so
+	 * that a piece can be written while the previous one is read.
+	 */
+	int pieceLength() {
+		return capacity / 2;
+	}
+
+	/**
+	 * Writes a frame, called by the producer.
+	 * 
+	 * @return false if there is no room for it
+	 */
+	boolean offer(byte[] frame) {
+		return offer(frame, 0, frame.length, false);
+	}
+
+	/**
+	 * Writes a piece of a frame, called by the producer.
+	 * 
+	 * @param more
+	 *            whether other pieces of the frame follow this one
+	 * @return false if there is no room for it
+	 */
+	boolean offer(byte[] frame, int offset, int length, boolean more) {
+		int needed = 4 + align(length);
+		long tail = map.getLong(TAIL);
+		long head = map.getLong(HEAD);
+		fence();
+		if (tail + needed - head > capacity)
+			return false;
+
+		int index = (int) tail & mask;
+		data.putInt(index, more ? ~length : length);
+		index = (index + 4) & mask;
+		int first = Math.min(length, capacity - index);
+		data.position(index);
+		data.put(frame, offset, first);
+		if (first < length) {
+			data.position(0);
+			data.put(frame, offset + first, length - first);
+		}
+
+		fence();
+		map.putLong(TAIL, tail + needed);
+		return true;
+	}
+
+	/**
+	 * Reads the next frame, called by the consumer.
+	 * 
+	 * @return null if the ring is empty
+	 */
+	byte[] poll() {
+		long head = map.getLong(HEAD);
+		long tail = map.getLong(TAIL);
+		if (head == tail)
+			return null;
+		fence();
+
+		int index = (int) head & mask;
+		int length = data.getInt(index);
+		more = length < 0;
+		byte[] frame = new byte[more ? ~length : length];
+		index = (index + 4) & mask;
+		int first = Math.min(frame.length, capacity - index);
+		data.position(index);
+		data.get(frame, 0, first);
+		if (first < frame.length) {
+			data.position(0);
+			data.get(frame, first, frame.length - first);
+		}
+
+		fence();
+		map.putLong(HEAD, head + 4 + align(frame.length));
+		return frame;
+	}
+
+	/**
+	 * Tells whether more pieces follow the last frame polled.
+	 */
+	boolean more() {
+		return more;
+	}
+
+	/**
+	 * Drops what a previous producer left in the ring, called by the
+	 * consumer before the producer may write.
+	 */
+	void attach() {
+		fence();
+		map.putLong(HEAD, map.getLong(TAIL));
+		fence();
+	}
+
+	void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static int align(int length) {
+		return (length + 3) & ~3;
+	}
+
+	/*
+	 * A volatile write followed by a volatile read: no memory access is
+	 * moved across both.
+	 */
+	private static int fence() {
+		barrier = 0;
+		return barrier;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread that reads the rings of the processes on the same host and hands
+ * the frames to the session. When no frame comes it spins for a while,
+ * then yields and finally parks between polls. It also checks which processes
+ * are up every LIVENESS_PERIOD.
+ * 
+ */
+class RingReader extends Thread {
+
+	// Spinning only delays the writer when there is one processor
+	private static final int SPINS = Runtime.getRuntime()
+			.availableProcessors() > 1 ? 20000 : 0;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 50 * 1000L;
+	private static final int BURST = 64;
+	private static final long LIVENESS_PERIOD = 100 * 1000000L;
+
+	private final ShmTransportSession session;
+	private final Peer[] peers;
+	private volatile boolean running;
+
+	RingReader(ShmTransportSession session, Peer[] peers) {
+		super("RingReader");
+		setDaemon(true);
+		this.session = session;
+		this.peers = peers;
+		running = true;
+	}
+
+	void shutdown() {
+		running = false;
+	}
+
+	public void run() {
+		int idle = 0;
+		long nextCheck = System.nanoTime();
+		while (running) {
+			boolean busy = false;
+			for (Peer peer : peers) {
+				peer.flush();
+				for (int i = 0; i < BURST; i++) {
+					byte[] frame = peer.receive();
+					if (frame == null)
+						break;
+					session.deliver(peer, frame);
+					busy = true;
+				}
+			}
+
+			if (busy) {
+				idle = 0;
+				continue;
+			}
+
+			long now = System.nanoTime();
+			if (now - nextCheck >= 0) {
+				session.checkPeers();
+				nextCheck = now + LIVENESS_PERIOD;
+			}
+
+			idle++;
+			if (idle < SPINS)
+				continue;
+			else if (idle < SPINS + YIELDS)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
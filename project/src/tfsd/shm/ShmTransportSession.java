@@ -0,0 +1,396 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import tfsd.EventFactory;
+import tfsd.ProcessInitEvent;
+import tfsd.SampleAppl;
+import tfsd.SampleProcess;
+import tfsd.lrb.ProcessSet;
+
+/**
+ * Session of the shared-memory transport, above the TCP one.
+ * <br>
+ * Events to processes on the same host are written to a ring buffer in a
+ * memory-mapped file of SampleAppl.SHM_DIR, one for each ordered pair of
+ * processes, and read by a RingReader thread on the other side, frames
+ * bigger than half a ring in pieces. Events to other hosts and to
+ * processes that are not up go down to the TCP transport. A link that
+ * carried events over TCP switches to the ring through RingSwitchEvent,
+ * so that each link stays FIFO.
+ * <br>
+ * Each process holds a lock on its own file while it runs. When the lock
+ * of a process that was up is released, it crashed, and a
+ * TcpUndeliveredEvent goes up as the TCP transport would send.
+ * 
+ */
+public class ShmTransportSession extends Session {
+
+	private static final int LOCK_ATTEMPTS = 1000;
+
+	private Map<String, Channel> channels;
+	private Map<SocketAddress, Peer> peers;
+
+	private SocketAddress self;
+	private RandomAccessFile lockFile;
+	private FileLock lock;
+	private RingReader reader;
+
+	/**
+	 * Builds a new ShmTransportSession.
+	 * 
+	 * @param layer
+	 */
+	public ShmTransportSession(Layer layer) {
+		super(layer);
+
+		channels = new ConcurrentHashMap<String, Channel>();
+		peers = new ConcurrentHashMap<SocketAddress, Peer>();
+	}
+
+	/**
+	 * Handles incoming events.
+	 * 
+	 * @see appia.Session#handle(appia.Event)
+	 */
+	public void handle(Event event) {
+		try {
+			if (event instanceof RingSwitchEvent) {
+				handleRingSwitch((RingSwitchEvent) event);
+			} else if (event instanceof SendableEvent) {
+				if (event.getDir() == Direction.DOWN)
+					send((SendableEvent) event);
+				else
+					event.go();
+			} else if (event instanceof ProcessInitEvent) {
+				handleProcessInit((ProcessInitEvent) event);
+				event.go();
+			} else if (event instanceof ChannelInit) {
+				Channel channel = ((ChannelInit) event).getChannel();
+				channels.put(channel.getChannelID(), channel);
+				event.go();
+			} else if (event instanceof ChannelClose) {
+				channels.remove(((ChannelClose) event).getChannel()
+						.getChannelID());
+				if (channels.isEmpty())
+					shutdown();
+				event.go();
+			} else {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Maps the rings shared with the processes on this host, then takes
+	 * the lock that tells them this process is up.
+	 */
+	private void handleProcessInit(ProcessInitEvent event) {
+		if (reader != null)
+			return;
+
+		ProcessSet processes = event.getProcessSet();
+		self = processes.getSelfProcess().getSocketAddress();
+		File dir = new File(SampleAppl.SHM_DIR);
+		dir.mkdirs();
+
+		for (SampleProcess process : processes.getAllProcesses()) {
+			SocketAddress address = process.getSocketAddress();
+			if (process.isSelf() || !isLocal(address))
+				continue;
+			try {
+				Ring in = new Ring(new File(dir, name(address) + "-"
+						+ name(self) + ".ring"), SampleAppl.SHM_RING_BYTES);
+				Ring out = new Ring(new File(dir, name(self) + "-"
+						+ name(address) + ".ring"), SampleAppl.SHM_RING_BYTES);
+				in.attach();
+				peers.put(address, new Peer(address, in, out, new File(dir,
+						name(address) + ".lock")));
+			} catch (IOException e) {
+				System.err.println("SHM: no ring with " + address + ": "
+						+ e.getMessage());
+			}
+		}
+
+		try {
+			lockFile = new RandomAccessFile(new File(dir, name(self) + ".lock"),
+					"rw");
+			// Held for a moment by each process that checks it
+			for (int i = 0; i < LOCK_ATTEMPTS && lock == null; i++) {
+				lock = lockFile.getChannel().tryLock();
+				if (lock == null)
+					Thread.yield();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (lock == null) {
+			System.err.println("SHM: could not lock " + name(self)
+					+ ", using TCP only");
+			peers.clear();
+		}
+
+		reader = new RingReader(this, peers.values().toArray(new Peer[0]));
+		reader.start();
+		System.err.println("SHM: " + peers.size()
+				+ " processes on this host, rings in " + dir);
+	}
+
+	private void shutdown() {
+		if (reader != null)
+			reader.shutdown();
+		for (Peer peer : peers.values()) {
+			peer.in.close();
+			peer.out.close();
+		}
+		peers.clear();
+		if (lockFile != null) {
+			try {
+				if (lock != null)
+					lock.release();
+				lockFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			lockFile = null;
+		}
+	}
+
+	/**
+	 * Writes the event to the ring of each destination on this host, and
+	 * sends it down to the others.
+	 */
+	private void send(SendableEvent event) throws AppiaEventException {
+		if (peers.isEmpty()) {
+			event.go();
+			return;
+		}
+
+		AppiaMulticast multicast = null;
+		Object[] destinations;
+		if (event.dest instanceof AppiaMulticast) {
+			multicast = (AppiaMulticast) event.dest;
+			destinations = multicast.getDestinations();
+		} else {
+			destinations = new Object[] { event.dest };
+		}
+
+		byte[] frame = null;
+		List<Object> remote = null;
+		for (Object dest : destinations) {
+			Peer peer = peers.get(dest);
+			if (peer != null && peer.usesRing()) {
+				if (peer.state == Peer.SWITCHING)
+					startSwitch(peer);
+				if (frame == null)
+					frame = encode(event);
+				peer.send(frame);
+				continue;
+			}
+			if (remote == null)
+				remote = new ArrayList<Object>(destinations.length);
+			remote.add(dest);
+		}
+
+		if (remote == null)
+			return;
+		if (remote.size() < destinations.length)
+			event.dest = new AppiaMulticast(multicast.getMulticastAddress(),
+					remote.toArray());
+		event.go();
+	}
+
+	/**
+	 * Sends a RingSwitchEvent over TCP on each channel to a process that
+	 * came up after events went to it over TCP.
+	 */
+	private void startSwitch(Peer peer) throws AppiaEventException {
+		List<Channel> started = new ArrayList<Channel>(channels.size());
+		for (Channel channel : channels.values())
+			if (channel.isStarted())
+				started.add(channel);
+		if (!peer.startSwitch(started.size()))
+			return;
+
+		for (Channel channel : started) {
+			RingSwitchEvent event = new RingSwitchEvent();
+			event.getMessage().pushBoolean(false);
+			event.source = self;
+			event.dest = peer.address;
+			event.setChannel(channel);
+			event.setDir(Direction.DOWN);
+			event.setSourceSession(this);
+			event.init();
+			event.go();
+		}
+	}
+
+	/**
+	 * Sends a RingSwitchEvent back, as the events sent before it over TCP
+	 * went up, or takes it when it comes back.
+	 */
+	private void handleRingSwitch(RingSwitchEvent event)
+			throws AppiaEventException {
+		if (event.getDir() == Direction.DOWN) {
+			event.go();
+			return;
+		}
+
+		if (event.getMessage().popBoolean()) {
+			Peer peer = peers.get(event.source);
+			if (peer != null)
+				peer.switched();
+			return;
+		}
+
+		RingSwitchEvent back = new RingSwitchEvent();
+		back.getMessage().pushBoolean(true);
+		back.source = self;
+		back.dest = event.source;
+		back.setChannel(event.getChannel());
+		back.setDir(Direction.DOWN);
+		back.setSourceSession(this);
+		back.init();
+		back.go();
+	}
+
+	/**
+	 * Builds the frame of an event, leaving its message as it was.
+	 */
+	private static byte[] encode(SendableEvent event) {
+		Message msg = event.getMessage();
+		msg.pushString(event.getClass().getName());
+		msg.pushString(event.getChannel().getChannelID());
+		byte[] frame = msg.toByteArray();
+		msg.popString();
+		msg.popString();
+		return frame;
+	}
+
+	/**
+	 * Inserts the event of a frame in its channel, called by the reader.
+	 */
+	void deliver(Peer peer, byte[] frame) {
+		Message msg = new Message(frame, 0, frame.length);
+		Channel channel = channels.get(msg.popString());
+		SendableEvent event = EventFactory.newEvent(msg.popString());
+		if (channel == null || !channel.isStarted() || event == null)
+			return;
+
+		event.setMessage(msg);
+		event.source = peer.address;
+		event.dest = self;
+		try {
+			event.asyncGo(channel, Direction.UP);
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Looks for processes that came up or released their lock, called by
+	 * the reader.
+	 */
+	void checkPeers() {
+		for (Peer peer : peers.values()) {
+			if (peer.state == Peer.WAITING) {
+				peer.checkStarted();
+			} else if (peer.state != Peer.CRASHED && !peer.isRunning()) {
+				peer.crashed();
+				System.err.println("SHM: " + peer.address + " released its lock");
+				for (Channel channel : channels.values()) {
+					if (!channel.isStarted())
+						continue;
+					try {
+						new TcpUndeliveredEvent(peer.address).asyncGo(channel,
+								Direction.UP);
+					} catch (AppiaEventException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether an address is one of this host.
+	 */
+	private static boolean isLocal(SocketAddress address) {
+		if (!(address instanceof InetSocketAddress))
+			return false;
+		InetAddress inet = ((InetSocketAddress) address).getAddress();
+		if (inet == null)
+			return false;
+		if (inet.isLoopbackAddress() || inet.isAnyLocalAddress())
+			return true;
+		try {
+			return NetworkInterface.getByInetAddress(inet) != null;
+		} catch (SocketException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * File name part for the address of a process.
+	 */
+	private static String name(SocketAddress address) {
+		InetSocketAddress inet = (InetSocketAddress) address;
+		return (inet.getAddress().getHostAddress() + "_" + inet.getPort())
+				.replaceAll("[^A-Za-z0-9._]", "_");
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import java.util.Arrays;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.channel.ChannelInit;
+import tfsd.DecisionListener;
+import tfsd.ProcessInitEvent;
+import tfsd.SampleSendableEvent;
+import tfsd.lrb.ProcessSet;
+import tfsd.pfd.PFDStartEvent;
+
+/**
+ * Application of a simulated process: proposes the values it is given and
+ * records what consensus decides.
+ * 
+ */
+public class SimApplSession extends Session implements DecisionListener {
+
+	private ProcessSet processes;
+	private SimNetwork network;
+	private Channel channel;
+
+	private int[] decisions;
+	private int decided;
+	private long lastDecision;
+
+	public SimApplSession(Layer layer) {
+		super(layer);
+		decisions = new int[64];
+		decided = 0;
+	}
+
+	public void init(ProcessSet processes, SimNetwork network) {
+		this.processes = processes;
+		this.network = network;
+	}
+
+	public void handle(Event event) {
+		try {
+			if (event instanceof ChannelInit) {
+				handleChannelInit((ChannelInit) event);
+			} else if (event.getDir() == Direction.DOWN) {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void handleChannelInit(ChannelInit init)
+			throws AppiaEventException {
+		init.go();
+		channel = init.getChannel();
+
+		ProcessInitEvent processInit = new ProcessInitEvent(channel,
+				Direction.DOWN, this);
+		processInit.setProcessSet(processes);
+		processInit.setDecisionListener(this);
+		processInit.go();
+
+		// Every process starts at once, so the detector can start too
+		new PFDStartEvent(channel, Direction.DOWN, this).go();
+	}
+
+	/**
+	 * Proposes a value, called by the simulator.
+	 */
+	public void propose(int value) {
+		try {
+			SampleSendableEvent event = new SampleSendableEvent();
+			event.setCommand("propose");
+			event.getMessage().pushInt(value);
+			event.asyncGo(channel, Direction.DOWN);
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void decide(int ts, int v) {
+		if (network.isCrashed(processes.getSelfRank()))
+			return;
+		if (decided == decisions.length)
+			decisions = Arrays.copyOf(decisions, decided * 2);
+		decisions[decided++] = v;
+		lastDecision = channel.getTimeProvider().currentTimeMicros();
+	}
+
+	/**
+	 * Gets the number of values decided.
+	 */
+	public int getDecided() {
+		return decided;
+	}
+
+	/**
+	 * Gets a decided value.
+	 */
+	public int getDecision(int i) {
+		return decisions[i];
+	}
+
+	/**
+	 * Gets the virtual time of the last decision, in microseconds.
+	 */
+	public long getLastDecision() {
+		return lastDecision;
+	}
+}
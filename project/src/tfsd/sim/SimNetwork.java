@@ -0,0 +1,248 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import tfsd.EventFactory;
+
+/**
+ * Network between the simulated processes.
+ * <br>
+ * An event is serialized when it is sent and rebuilt at each destination
+ * after a latency drawn from a seeded generator, in FIFO order on each
+ * link, as over TCP. Sending to a crashed process, and the crash of a
+ * process, are reported with a TcpUndeliveredEvent one latency later, as
+ * a reset or closed connection would be.
+ * 
+ */
+public class SimNetwork {
+
+	private final VirtualTimerManager clock;
+	private final Random random;
+	private final long latency;
+	private final long jitter;
+
+	private final Map<SocketAddress, Integer> ranks;
+	private final Channel[] channels;
+	private final SocketAddress[] addresses;
+	private final Set<SocketAddress> crashed;
+
+	// Arrival time of the last message on each link, to keep them in order
+	private final long[][] lastArrival;
+
+	private long messages;
+	private long bytes;
+	private final Map<String, long[]> perClass;
+
+	/**
+	 * @param latency
+	 *            smallest one-way latency, in microseconds
+	 * @param jitter
+	 *            spread of the latency above it, in microseconds
+	 */
+	public SimNetwork(VirtualTimerManager clock, long seed, int processes,
+			long latency, long jitter) {
+		this.clock = clock;
+		random = new Random(seed);
+		this.latency = latency;
+		this.jitter = jitter;
+
+		ranks = new HashMap<SocketAddress, Integer>();
+		channels = new Channel[processes];
+		addresses = new SocketAddress[processes];
+		crashed = new HashSet<SocketAddress>();
+		lastArrival = new long[processes][processes];
+		perClass = new TreeMap<String, long[]>();
+	}
+
+	/**
+	 * Attaches the channel of a process.
+	 */
+	void register(SocketAddress address, int rank, Channel channel) {
+		ranks.put(address, rank);
+		addresses[rank] = address;
+		channels[rank] = channel;
+	}
+
+	/**
+	 * Crashes a process: it sends and receives nothing more, its timers
+	 * stop, and the others see its connections close.
+	 */
+	public void crash(int rank) {
+		SocketAddress address = addresses[rank];
+		if (!crashed.add(address))
+			return;
+		clock.halt(channels[rank]);
+		for (int i = 0; i < addresses.length; i++)
+			if (i != rank && !crashed.contains(addresses[i]))
+				undelivered(rank, i);
+	}
+
+	public boolean isCrashed(int rank) {
+		return crashed.contains(addresses[rank]);
+	}
+
+	/**
+	 * Sends an event from a process to its destinations.
+	 */
+	void send(SocketAddress from, SendableEvent event) {
+		if (crashed.contains(from))
+			return;
+		int source = ranks.get(from);
+
+		Object[] destinations;
+		if (event.dest instanceof AppiaMulticast)
+			destinations = ((AppiaMulticast) event.dest).getDestinations();
+		else
+			destinations = new Object[] { event.dest };
+
+		String className = event.getClass().getName();
+		byte[] frame = null;
+		for (Object dest : destinations) {
+			Integer target = ranks.get(dest);
+			if (target == null)
+				continue;
+			if (crashed.contains(dest)) {
+				undelivered(target, source);
+				continue;
+			}
+
+			if (frame == null)
+				frame = event.getMessage().toByteArray();
+			count(className, frame.length);
+			deliver(source, target, className, frame);
+		}
+	}
+
+	private void deliver(final int source, final int target,
+			final String className, final byte[] frame) {
+		clock.schedule(delay(source, target), new Runnable() {
+			public void run() {
+				if (crashed.contains(addresses[target]))
+					return;
+				SendableEvent event = newEvent(className);
+				event.setMessage(new Message(frame, 0, frame.length));
+				event.source = addresses[source];
+				event.dest = addresses[target];
+				try {
+					event.asyncGo(channels[target], Direction.UP);
+				} catch (AppiaEventException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Tells a process that it lost its connection to another one.
+	 */
+	private void undelivered(final int failed, final int target) {
+		clock.schedule(delay(failed, target), new Runnable() {
+			public void run() {
+				if (crashed.contains(addresses[target]))
+					return;
+				try {
+					new TcpUndeliveredEvent(addresses[failed]).asyncGo(
+							channels[target], Direction.UP);
+				} catch (AppiaEventException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Draws the latency of a message, no earlier than the previous one on
+	 * the same link.
+	 */
+	private long delay(int source, int target) {
+		long now = clock.currentTimeMicros();
+		long arrival = now + latency
+				+ (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+		if (arrival < lastArrival[source][target])
+			arrival = lastArrival[source][target];
+		lastArrival[source][target] = arrival;
+		return arrival - now;
+	}
+
+	private void count(String className, int length) {
+		messages++;
+		bytes += length;
+		long[] counts = perClass.get(className);
+		if (counts == null) {
+			counts = new long[2];
+			perClass.put(className, counts);
+		}
+		counts[0]++;
+		counts[1] += length;
+	}
+
+	private static SendableEvent newEvent(String className) {
+		SendableEvent event = EventFactory.newEvent(className);
+		if (event == null)
+			throw new IllegalStateException("Can not rebuild " + className);
+		return event;
+	}
+
+	/**
+	 * Gets the number of messages sent, one per destination.
+	 */
+	public long getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Gets the bytes of the messages sent.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number and bytes of the messages sent, by event class.
+	 */
+	public Map<String, long[]> getMessagesPerClass() {
+		return perClass;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticastSupport;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import tfsd.ProcessInitEvent;
+
+/**
+ * Layer at the bottom of a simulated process, in place of the transport.
+ * 
+ */
+public class SimNetworkLayer extends Layer implements AppiaMulticastSupport {
+
+	private final SimNetwork network;
+
+	public SimNetworkLayer(SimNetwork network) {
+		this.network = network;
+
+		/* events that the protocol will create */
+		evProvide = new Class[2];
+		evProvide[0] = TcpUndeliveredEvent.class;
+		evProvide[1] = SendableEvent.class;
+
+		/*
+		 * events that the protocol require to work. This is a subset of the
+		 * accepted events
+		 */
+		evRequire = new Class[2];
+		evRequire[0] = ProcessInitEvent.class;
+		evRequire[1] = ChannelInit.class;
+
+		/* events that the protocol will accept */
+		evAccept = new Class[3];
+		evAccept[0] = SendableEvent.class;
+		evAccept[1] = ProcessInitEvent.class;
+		evAccept[2] = ChannelInit.class;
+
+	}
+
+	/**
+	 * Creates a new session to this protocol.
+	 * 
+	 * @see appia.Layer#createSession()
+	 */
+	public Session createSession() {
+		return new SimNetworkSession(this, network);
+	}
+
+}
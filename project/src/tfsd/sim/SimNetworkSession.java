@@ -0,0 +1,83 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import java.net.SocketAddress;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelInit;
+import tfsd.ProcessInitEvent;
+import tfsd.lrb.ProcessSet;
+
+/**
+ * Session that hands the events of a simulated process to the network.
+ * 
+ */
+public class SimNetworkSession extends Session {
+
+	private final SimNetwork network;
+	private Channel channel;
+	private SocketAddress self;
+
+	public SimNetworkSession(Layer layer, SimNetwork network) {
+		super(layer);
+		this.network = network;
+	}
+
+	public void handle(Event event) {
+		try {
+			if (event instanceof SendableEvent) {
+				if (event.getDir() == Direction.DOWN)
+					network.send(self, (SendableEvent) event);
+				else
+					event.go();
+			} else if (event instanceof ProcessInitEvent) {
+				ProcessSet processes = ((ProcessInitEvent) event)
+						.getProcessSet();
+				self = processes.getSelfProcess().getSocketAddress();
+				network.register(self, processes.getSelfRank(), channel);
+				event.go();
+			} else if (event instanceof ChannelInit) {
+				channel = ((ChannelInit) event).getChannel();
+				event.go();
+			} else {
+				event.go();
+			}
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.appia.core.Appia;
+import net.sf.appia.core.AppiaCursorException;
+import net.sf.appia.core.AppiaDuplicatedSessionsException;
+import net.sf.appia.core.AppiaInvalidQoSException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.ChannelCursor;
+import net.sf.appia.core.EventScheduler;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.QoS;
+import net.sf.appia.core.Session;
+import tfsd.SampleAppl;
+import tfsd.SampleProcess;
+import tfsd.batch.BatchLayer;
+import tfsd.beb.BasicBroadcastLayer;
+import tfsd.consensus.ConsensusLayer;
+import tfsd.consensus.ConsensusSession;
+import tfsd.lrb.LazyRBLayer;
+import tfsd.lrb.ProcessSet;
+import tfsd.paxos.PaxosLayer;
+import tfsd.pfd.PhiAccrualFDLayer;
+import tfsd.pfd.TcpBasedPFDLayer;
+
+/**
+ * Runs n processes of the protocol stack in one virtual machine, over a
+ * simulated network and on a virtual clock.
+ * <br>
+ * All the channels share one event scheduler, driven by this thread: the
+ * events in the scheduler are consumed, then the next timer, network
+ * delivery, proposal or crash is run, moving the clock forward. Latencies
+ * come from a seeded generator, so a run with the same arguments decides
+ * the same values with the same messages.
+ * <br>
+ * Each process proposes a value every interval. The run ends when every
+ * process that did not crash decided as many values as it proposed, or
+ * when the virtual time limit is reached. The output of the sessions is
+ * dropped unless -verbose is given.
+ * 
+ */
+public class Simulator {
+
+	private int n = 4;
+	private long seed = 1;
+	private long latency = 100;
+	private long jitter = 50;
+	private int proposals = 100;
+	private long interval = 1000;
+	private long duration = 600 * 1000000L;
+	private String consensus = "rc";
+	private String fd = "tcp";
+	private boolean verbose = false;
+	private List<long[]> crashes = new ArrayList<long[]>();
+
+	private VirtualTimerManager clock;
+	private EventScheduler scheduler;
+	private SimNetwork network;
+	private Channel[] channels;
+	private SimApplSession[] applications;
+	private long events;
+	private boolean dispatching;
+
+	public static void main(String[] args) {
+		Simulator simulator = new Simulator();
+		simulator.parse(args);
+		simulator.build();
+		simulator.run();
+	}
+
+	private void parse(String[] args) {
+		try {
+			for (int arg = 0; arg < args.length; arg++) {
+				if (args[arg].equals("-n")) {
+					n = Integer.parseInt(args[++arg]);
+					if (n < 2) {
+						invalidArgs("There must be at least 2 processes");
+					}
+				} else if (args[arg].equals("-fail")) {
+					SampleAppl.TOLERATED_FAILURES = Integer
+							.parseInt(args[++arg]);
+				} else if (args[arg].equals("-seed")) {
+					seed = Long.parseLong(args[++arg]);
+				} else if (args[arg].equals("-latency")) {
+					latency = Long.parseLong(args[++arg]);
+				} else if (args[arg].equals("-jitter")) {
+					jitter = Long.parseLong(args[++arg]);
+				} else if (args[arg].equals("-proposals")) {
+					proposals = Integer.parseInt(args[++arg]);
+				} else if (args[arg].equals("-interval")) {
+					interval = Long.parseLong(args[++arg]);
+				} else if (args[arg].equals("-duration")) {
+					duration = Long.parseLong(args[++arg]) * 1000;
+				} else if (args[arg].equals("-crash")) {
+					String[] crash = args[++arg].split("@");
+					if (crash.length != 2) {
+						invalidArgs("A crash is given as rank@ms");
+					}
+					crashes.add(new long[] { Integer.parseInt(crash[0]),
+							Long.parseLong(crash[1]) * 1000 });
+				} else if (args[arg].equals("-consensus")) {
+					consensus = args[++arg];
+					if (!consensus.equals("rc") && !consensus.equals("paxos")) {
+						invalidArgs("Unknown consensus protocol: " + consensus);
+					}
+				} else if (args[arg].equals("-fd")) {
+					fd = args[++arg];
+					if (!fd.equals("tcp") && !fd.equals("phi")) {
+						invalidArgs("Unknown failure detector: " + fd);
+					}
+				} else if (args[arg].equals("-window")) {
+					SampleAppl.CONSENSUS_WINDOW = Integer.parseInt(args[++arg]);
+				} else if (args[arg].equals("-batch")) {
+					SampleAppl.CONSENSUS_BATCH_SIZE = Integer
+							.parseInt(args[++arg]);
+				} else if (args[arg].equals("-verbose")) {
+					verbose = true;
+				} else {
+					invalidArgs("Unknown argument: " + args[arg]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			invalidArgs(e.getMessage());
+		} catch (ArrayIndexOutOfBoundsException e) {
+			invalidArgs("Missing value of " + args[args.length - 1]);
+		}
+
+		for (long[] crash : crashes) {
+			if (crash[0] < 0 || crash[0] >= n) {
+				invalidArgs("No process " + crash[0] + " to crash");
+			}
+		}
+	}
+
+	/**
+	 * Builds the channels of the processes, and schedules the proposals
+	 * and crashes.
+	 */
+	private void build() {
+		// This thread is the Appia thread while it consumes events, so
+		// that they may go, and not while it runs actions, so that these
+		// may insert events with asyncGo
+		final Thread driver = Thread.currentThread();
+		Appia appia = new Appia() {
+			public Thread instanceGetAppiaThread() {
+				return dispatching ? driver : null;
+			}
+		};
+		clock = new VirtualTimerManager();
+		appia.instanceSetTimerManager(clock);
+		scheduler = new EventScheduler(appia);
+		network = new SimNetwork(clock, seed, n, latency, jitter);
+
+		SocketAddress[] addresses = new SocketAddress[n];
+		for (int i = 0; i < n; i++) {
+			try {
+				addresses[i] = new InetSocketAddress(InetAddress
+						.getByAddress(new byte[] { 10, 0, (byte) (i >> 8),
+								(byte) i }), 25000);
+			} catch (UnknownHostException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		channels = new Channel[n];
+		applications = new SimApplSession[n];
+		for (int i = 0; i < n; i++) {
+			ProcessSet processes = new ProcessSet(n);
+			for (int j = 0; j < n; j++)
+				processes.addProcess(new SampleProcess(addresses[j], j, j == i),
+						j);
+			channels[i] = buildChannel(i, processes);
+		}
+
+		for (int i = 0; i < n; i++) {
+			final SimApplSession application = applications[i];
+			for (int k = 0; k < proposals; k++) {
+				final int value = i * 100000 + k;
+				final int rank = i;
+				clock.schedule((k + 1) * interval, new Runnable() {
+					public void run() {
+						if (!network.isCrashed(rank))
+							application.propose(value);
+					}
+				});
+			}
+		}
+		for (final long[] crash : crashes) {
+			clock.schedule(crash[1], new Runnable() {
+				public void run() {
+					network.crash((int) crash[0]);
+				}
+			});
+		}
+	}
+
+	private Channel buildChannel(int rank, ProcessSet processes) {
+		List<Layer> layers = new ArrayList<Layer>();
+		layers.add(new SimNetworkLayer(network));
+		layers.add(new BatchLayer(SampleAppl.BATCH_FLUSH_MICROS,
+				SampleAppl.BATCH_FRAME_BYTES));
+		layers.add(new BasicBroadcastLayer());
+		if (fd.equals("phi")) {
+			layers.add(new PhiAccrualFDLayer());
+		} else {
+			layers.add(new TcpBasedPFDLayer());
+		}
+		if (consensus.equals("paxos")) {
+			layers.add(new PaxosLayer());
+		} else {
+			layers.add(new LazyRBLayer());
+			layers.add(new ConsensusLayer());
+		}
+		SimApplLayer applLayer = new SimApplLayer();
+		layers.add(applLayer);
+
+		try {
+			QoS qos = new QoS("Simulated process QoS", layers
+					.toArray(new Layer[layers.size()]));
+			Channel channel = qos.createUnboundChannel("sim" + rank,
+					scheduler);
+			SimApplSession application = (SimApplSession) applLayer
+					.createSession();
+			application.init(processes, network);
+			applications[rank] = application;
+
+			ChannelCursor cc = channel.getCursor();
+			cc.top();
+			cc.setSession(application);
+			channel.start();
+			return channel;
+		} catch (AppiaInvalidQoSException e) {
+			throw new IllegalStateException(e);
+		} catch (AppiaCursorException e) {
+			throw new IllegalStateException(e);
+		} catch (AppiaDuplicatedSessionsException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void run() {
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+		if (!verbose) {
+			PrintStream none = new PrintStream(new OutputStream() {
+				public void write(int b) {
+				}
+
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+			System.setOut(none);
+			System.setErr(none);
+		}
+
+		long start = System.nanoTime();
+		while (true) {
+			dispatching = true;
+			while (scheduler.consumeEvent())
+				events++;
+			dispatching = false;
+			if (finished() || clock.nextTime() > duration || !clock.runNext())
+				break;
+		}
+		long wall = System.nanoTime() - start;
+
+		System.setOut(out);
+		System.setErr(err);
+		report(out, wall);
+	}
+
+	private boolean finished() {
+		for (int i = 0; i < n; i++)
+			if (!network.isCrashed(i)
+					&& applications[i].getDecided() < proposals)
+				return false;
+		return true;
+	}
+
+	private void report(PrintStream out, long wall) {
+		out.printf("Simulated %d processes, %s consensus, %s detector,"
+				+ " seed %d, latency %d+%d us%n", n, consensus, fd, seed,
+				latency, jitter);
+
+		int min = Integer.MAX_VALUE, max = 0, reference = -1;
+		long last = 0;
+		for (int i = 0; i < n; i++) {
+			if (network.isCrashed(i))
+				continue;
+			SimApplSession application = applications[i];
+			min = Math.min(min, application.getDecided());
+			if (application.getDecided() > max) {
+				max = application.getDecided();
+				reference = i;
+			}
+			last = Math.max(last, application.getLastDecision());
+		}
+
+		boolean agree = true;
+		long fingerprint = 17;
+		for (int i = 0; i < n; i++) {
+			SimApplSession application = applications[i];
+			for (int k = 0; k < application.getDecided(); k++)
+				if (application.getDecision(k) != applications[reference]
+						.getDecision(k))
+					agree = false;
+		}
+		for (int k = 0; k < max; k++)
+			fingerprint = fingerprint * 31
+					+ applications[reference].getDecision(k);
+		fingerprint = fingerprint * 31 + network.getMessages();
+
+		double seconds = (last - interval) / 1e6;
+		line(out, "decisions per process", min + " to " + max
+				+ (agree ? ", all agree" : ", DISAGREE"));
+		line(out, "virtual time of the last decision", String.format(
+				"%.1f ms", last / 1e3));
+		line(out, "decisions per virtual second", String.format("%.1f",
+				max / seconds));
+
+		ConsensusSession session = find(channels[reference],
+				ConsensusSession.class);
+		if (session != null && session.getDecidedInstances() > 0) {
+			line(out, "instances", String.valueOf(session
+					.getDecidedInstances()));
+			line(out, "rounds per instance", String.format("%.2f",
+					(double) session.getRounds()
+							/ session.getDecidedInstances()));
+			line(out, "coin tosses / fast decisions", session.getCoinTosses()
+					+ " / " + session.getFastDecisions());
+		}
+
+		line(out, "messages", network.getMessages() + " ("
+				+ network.getBytes() + " B)");
+		if (max > 0)
+			line(out, "messages per decision", String.format("%.1f",
+					(double) network.getMessages() / max));
+		for (Map.Entry<String, long[]> entry : network.getMessagesPerClass()
+				.entrySet()) {
+			String name = entry.getKey();
+			line(out, "  " + name.substring(name.lastIndexOf('.') + 1), entry
+					.getValue()[0]
+					+ " (" + entry.getValue()[1] + " B)");
+		}
+		line(out, "Appia events", String.valueOf(events));
+		line(out, "wall time", String.format("%.0f ms", wall / 1e6));
+		line(out, "fingerprint", Long.toHexString(fingerprint));
+	}
+
+	private static void line(PrintStream out, String name, String value) {
+		out.printf("%-40s %s%n", name, value);
+	}
+
+	/**
+	 * Finds the session of a class in a channel.
+	 */
+	private static <T extends Session> T find(Channel channel, Class<T> type) {
+		ChannelCursor cc = channel.getCursor();
+		cc.bottom();
+		try {
+			while (cc.isPositioned()) {
+				Session session = cc.getSession();
+				if (type.isInstance(session))
+					return type.cast(session);
+				cc.up();
+			}
+		} catch (AppiaCursorException e) {
+			// Went past the top
+		}
+		return null;
+	}
+
+	/**
+	 * Prints a error message and exit.
+	 * 
+	 * @param reason
+	 *            the reason of the failure
+	 */
+	private static void invalidArgs(String reason) {
+		System.err.println("Invalid args: "
+			+ reason
+			+ "\nUsage Simulator [options]"
+			+ "\n -n processes - number of processes (default 4)"
+			+ "\n -fail f - tolerated failures (default 1)"
+			+ "\n -seed s - seed of the latencies (default 1)"
+			+ "\n -latency us - smallest one-way latency (default 100)"
+			+ "\n -jitter us - spread of the latency above it (default 50)"
+			+ "\n -proposals k - values proposed by each process"
+			+ " (default 100)"
+			+ "\n -interval us - time between two proposals of a process"
+			+ " (default 1000)"
+			+ "\n -duration ms - virtual time limit (default 600000)"
+			+ "\n -crash rank@ms - crashes a process, can be repeated"
+			+ "\n -consensus rc|paxos - randomized consensus (default) or"
+			+ " leader-based Multi-Paxos"
+			+ "\n -fd tcp|phi - failure detector on connection errors"
+			+ " (default) or on heartbeats"
+			+ "\n -window k - number of concurrent consensus instances"
+			+ "\n -batch k - maximum number of proposals decided together"
+			+ "\n -verbose - prints the output of the sessions");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ *
+ * Contact
+ * 	Address:
+ *		Rua Alves Redol 9, Office 605
+ *		1000-029 Lisboa
+ *		PORTUGAL
+ * 	Email:
+ * 		ler@ist.utl.pt
+ * 	Web:
+ *		http://homepages.gsd.inesc-id.pt/~ler/
+ * 
+ */
+
+
+package tfsd.sim;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.events.channel.ChannelEvent;
+import net.sf.appia.core.events.channel.PeriodicTimer;
+import net.sf.appia.core.events.channel.Timer;
+
+/**
+ * Timer manager on a virtual clock.
+ * <br>
+ * Nothing happens on its own: the simulator runs the next scheduled action
+ * with runNext, which moves the clock to its time. Actions are timer
+ * expirations and anything the simulator schedules, such as network
+ * deliveries. Actions due at the same time run in the order they were
+ * scheduled, so a run only depends on its inputs.
+ * <br>
+ * As in the real manager, a timer that is set again runs twice, and
+ * cancelling removes every timer of its id. Ids are taken per channel, as
+ * every simulated process has the same timers.
+ * 
+ */
+public class VirtualTimerManager extends net.sf.appia.core.TimerManager {
+
+	private static class Action implements Comparable<Action> {
+		final long time;
+		final long order;
+		final Runnable task;
+
+		Action(long time, long order, Runnable task) {
+			this.time = time;
+			this.order = order;
+			this.task = task;
+		}
+
+		public int compareTo(Action other) {
+			if (time != other.time)
+				return time < other.time ? -1 : 1;
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A pending timer, until it is cancelled.
+	 */
+	private class Expiration implements Runnable {
+		final String key;
+		final ChannelEvent timer;
+		final long period;
+		boolean cancelled;
+
+		Expiration(String key, ChannelEvent timer, long period) {
+			this.key = key;
+			this.timer = timer;
+			this.period = period;
+		}
+
+		public void run() {
+			if (cancelled || halted.contains(timer.getChannel()))
+				return;
+			try {
+				ChannelEvent expired = timer;
+				if (period > 0) {
+					expired = (ChannelEvent) timer.cloneEvent();
+					schedule(period, this);
+				} else {
+					List<Expiration> pending = timers.get(key);
+					pending.remove(this);
+					if (pending.isEmpty())
+						timers.remove(key);
+				}
+				expired.setQualifierMode(EventQualifier.NOTIFY);
+				expired.asyncGo(expired.getChannel(), Direction
+						.invert(expired.getDir()));
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			} catch (AppiaEventException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private final PriorityQueue<Action> agenda;
+	private final Map<String, List<Expiration>> timers;
+	private final Set<Channel> halted;
+	private long now;
+	private long scheduled;
+
+	public VirtualTimerManager() {
+		super(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r);
+			}
+		});
+		agenda = new PriorityQueue<Action>();
+		timers = new HashMap<String, List<Expiration>>();
+		halted = new HashSet<Channel>();
+		now = 0;
+		scheduled = 0;
+	}
+
+	/**
+	 * Schedules an action.
+	 * 
+	 * @param delay
+	 *            microseconds from now
+	 */
+	public void schedule(long delay, Runnable task) {
+		agenda.add(new Action(now + delay, scheduled++, task));
+	}
+
+	/**
+	 * Runs the next action, moving the clock to its time.
+	 * 
+	 * @return false if there is none
+	 */
+	public boolean runNext() {
+		Action action = agenda.poll();
+		if (action == null)
+			return false;
+		now = action.time;
+		action.task.run();
+		return true;
+	}
+
+	/**
+	 * Gets the time of the next action, in microseconds.
+	 * 
+	 * @return Long.MAX_VALUE if there is none
+	 */
+	public long nextTime() {
+		Action action = agenda.peek();
+		return action == null ? Long.MAX_VALUE : action.time;
+	}
+
+	/**
+	 * Stops the timers of a channel, whose process crashed.
+	 */
+	public void halt(Channel channel) {
+		halted.add(channel);
+	}
+
+	public void handleTimerRequest(Timer timer) {
+		handle(timer, timer.getTimeout(), 0);
+	}
+
+	public void handlePeriodicTimer(PeriodicTimer timer) {
+		handle(timer, timer.getPeriod(), timer.getPeriod());
+	}
+
+	private void handle(ChannelEvent timer, long millis, long periodMillis) {
+		String id = timer instanceof Timer ? ((Timer) timer).timerID
+				: ((PeriodicTimer) timer).timerID;
+		String key = timer.getChannel().getChannelID() + "/" + id;
+
+		int mode = timer.getQualifierMode();
+		if (mode == EventQualifier.NOTIFY)
+			return;
+
+		if (mode == EventQualifier.ON) {
+			Expiration expiration = new Expiration(key, timer,
+					periodMillis * 1000);
+			List<Expiration> pending = timers.get(key);
+			if (pending == null) {
+				pending = new LinkedList<Expiration>();
+				timers.put(key, pending);
+			}
+			pending.add(expiration);
+			schedule(millis * 1000, expiration);
+		} else {
+			List<Expiration> pending = timers.remove(key);
+			if (pending != null)
+				for (Expiration expiration : pending)
+					expiration.cancelled = true;
+		}
+	}
+
+	public void start() {
+	}
+
+	public void stop() {
+	}
+
+	public long currentTimeMillis() {
+		return now / 1000;
+	}
+
+	public long currentTimeMicros() {
+		return now;
+	}
+
+	public long nanoTime() {
+		return now * 1000;
+	}
+}